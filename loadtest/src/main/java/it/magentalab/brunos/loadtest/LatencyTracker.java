@@ -0,0 +1,88 @@
+package it.magentalab.brunos.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency from a request to the moment its event has reached the last connected screen.
+ * <p>
+ * Each request is identified by the key of the event it causes, {@code <event>|...}, e.g. {@code order|name|article}:
+ * latencies are recorded by event.
+ */
+final class LatencyTracker {
+
+	private record Pending(long sentAt, AtomicInteger remaining) {
+	}
+
+	private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+	// microseconds, up to a minute
+	private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+	private final LongAdder receipts = new LongAdder();
+	private final LongAdder unexpected = new LongAdder();
+
+	/**
+	 * Starts tracking a request, before sending it.
+	 *
+	 * @param screens screens expected to receive the event
+	 */
+	void sent(String key, int screens) {
+		if (screens > 0) {
+			pending.put(key, new Pending(System.nanoTime(), new AtomicInteger(screens)));
+		}
+	}
+
+	/**
+	 * Stops tracking a request that failed or did not change anything.
+	 */
+	void cancel(String key) {
+		pending.remove(key);
+	}
+
+	/**
+	 * Records that a screen has received the event.
+	 */
+	void received(String key) {
+		long now = System.nanoTime();
+		receipts.increment();
+		var request = pending.get(key);
+		if (request == null) {
+			unexpected.increment();
+			return;
+		}
+		if (request.remaining().decrementAndGet() == 0 && pending.remove(key, request)) {
+			var histogram = latencies(key.substring(0, Math.max(0, key.indexOf('|'))));
+			histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(now - request.sentAt()), histogram.getHighestTrackableValue()));
+		}
+	}
+
+	/**
+	 * @return The latencies of the requests causing the event, in microseconds
+	 */
+	Histogram latencies(String event) {
+		return latencies.computeIfAbsent(event, e -> new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3));
+	}
+
+	long receipts() {
+		return receipts.sum();
+	}
+
+	/**
+	 * @return Events received for requests not tracked, e.g. sent by someone else
+	 */
+	long unexpected() {
+		return unexpected.sum();
+	}
+
+	/**
+	 * @return Requests whose event has not reached every screen
+	 */
+	int incomplete() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,268 @@
+package it.magentalab.brunos.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Order storm against a running backend: {@code --rate} order requests per second, saves and deletes
+ * of {@code --users} people, while {@code --screens} Socket.IO clients of the group record when each
+ * change reaches them. Prints a JSON summary with the latency from the request to the last screen
+ * receiving the event, the throughput and the errors.
+ * <p>
+ * Start the backend on the H2 profile, with the order rate limit above the test rate, e.g.:
+ * <pre>
+ * java --enable-preview -jar target/brunos-1.0.0.jar --spring.profiles.active=h2 \
+ *   --ratelimit.orders.capacity=100000 --ratelimit.orders.per-second=100000
+ * java -jar loadtest/target/brunos-loadtest.jar --screens 40 --users 80 --rate 50 --duration 60 --reset
+ * </pre>
+ */
+public final class LoadTest {
+
+	private static final ObjectMapper JSON = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+	private record SavedOrder(String name, String article) {
+	}
+
+	private final Options options;
+	private final HttpClient http = HttpClient.newBuilder()
+		.executor(Executors.newVirtualThreadPerTaskExecutor())
+		.connectTimeout(Duration.ofSeconds(5))
+		.build();
+	private final LatencyTracker tracker = new LatencyTracker();
+	// microseconds, up to a minute
+	private final Histogram responseTimes = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+	private final ConcurrentLinkedDeque<SavedOrder> saved = new ConcurrentLinkedDeque<>();
+	private final AtomicLong counter = new AtomicLong();
+	private final LongAdder saves = new LongAdder();
+	private final LongAdder deletes = new LongAdder();
+	private final LongAdder rateLimited = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder disconnects = new LongAdder();
+	// requests in flight
+	private final Phaser inFlight = new Phaser(1);
+	private int connectedScreens;
+
+	private LoadTest(Options options) {
+		this.options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(Options.USAGE);
+			System.exit(2);
+			return;
+		}
+		if (options == null) {
+			System.out.print(Options.USAGE);
+			return;
+		}
+		var summary = new LoadTest(options).run();
+		String json = JSON.writeValueAsString(summary);
+		System.out.println(json);
+		if (options.output() != null) {
+			Files.writeString(Path.of(options.output()), json);
+		}
+		System.exit(0);
+	}
+
+	private Map<String, Object> run() throws InterruptedException {
+		List<Screen> screens = connectScreens();
+
+		System.err.printf("%d screens connected, sending %.1f requests/s for %ds%n",
+			connectedScreens, options.rate(), options.duration().toSeconds());
+		long receiptsBefore = tracker.receipts();
+		long start = System.nanoTime();
+		ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+		ticker.scheduleAtFixedRate(this::fire, 0, (long) (TimeUnit.SECONDS.toNanos(1) / options.rate()), TimeUnit.NANOSECONDS);
+		Thread.sleep(options.duration().toMillis());
+		ticker.shutdownNow();
+		ticker.awaitTermination(5, TimeUnit.SECONDS);
+		inFlight.arriveAndAwaitAdvance();
+		long elapsed = System.nanoTime() - start;
+		Thread.sleep(options.drain().toMillis());
+		long receipts = tracker.receipts() - receiptsBefore;
+
+		if (options.reset()) {
+			reset();
+		}
+		screens.forEach(Screen::close);
+		return summary(elapsed, receipts);
+	}
+
+	private List<Screen> connectScreens() throws InterruptedException {
+		var connected = new CountDownLatch(options.screens());
+		List<Screen> screens = new ArrayList<>(options.screens());
+		for (int i = 0; i < options.screens(); i++) {
+			var screen = new Screen(options.socketUrl(), options.group(), tracker, connected, disconnects);
+			screen.connect();
+			screens.add(screen);
+		}
+		connected.await(30, TimeUnit.SECONDS);
+		connectedScreens = (int) (options.screens() - connected.getCount());
+		// let the initial sync of the current orders go by
+		Thread.sleep(1000);
+		return screens;
+	}
+
+	/**
+	 * Sends the next request: deletes an order saved before, or saves a new one.
+	 */
+	private void fire() {
+		long n = counter.incrementAndGet();
+		SavedOrder delete = ThreadLocalRandom.current().nextDouble() < options.deleteRatio() ? saved.pollFirst() : null;
+		if (delete != null) {
+			send("DELETE", delete, Screen.orderKey("delete", delete.name(), delete.article()), deletes);
+		} else {
+			var order = new SavedOrder("user" + (n % options.users()), "loadtest " + n);
+			send("POST", order, Screen.orderKey("order", order.name(), order.article()), saves);
+		}
+	}
+
+	private void send(String method, SavedOrder order, String key, LongAdder sent) {
+		String body = "{\"name\":" + quote(order.name()) + ",\"article\":" + quote(order.article()) + ",\"group\":" + quote(options.group()) + "}";
+		var request = HttpRequest.newBuilder(options.url().resolve("/api/order"))
+			.header("Content-Type", "application/json")
+			.method(method, HttpRequest.BodyPublishers.ofString(body))
+			.timeout(Duration.ofSeconds(30))
+			.build();
+		inFlight.register();
+		tracker.sent(key, connectedScreens);
+		long start = System.nanoTime();
+		http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+			try {
+				responseTimes.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start), responseTimes.getHighestTrackableValue()));
+				sent.increment();
+				if (e == null && response.statusCode() / 100 == 2) {
+					if (method.equals("POST")) {
+						saved.addLast(order);
+					}
+					return;
+				}
+				tracker.cancel(key);
+				if (e == null && response.statusCode() == 429) {
+					rateLimited.increment();
+				} else {
+					errors.increment();
+				}
+			} finally {
+				inFlight.arriveAndDeregister();
+			}
+		});
+	}
+
+	/**
+	 * Resets the group and waits for the screens to get the {@code reset} event.
+	 */
+	private void reset() throws InterruptedException {
+		String group = URLEncoder.encode(options.group(), StandardCharsets.UTF_8);
+		var request = HttpRequest.newBuilder(URI.create(options.url().resolve("/api/order/all") + "?group=" + group))
+			.DELETE()
+			.timeout(Duration.ofSeconds(30))
+			.build();
+		tracker.sent("reset|", connectedScreens);
+		try {
+			var response = http.send(request, HttpResponse.BodyHandlers.discarding());
+			if (response.statusCode() / 100 != 2) {
+				tracker.cancel("reset|");
+				errors.increment();
+			}
+		} catch (Exception e) {
+			tracker.cancel("reset|");
+			errors.increment();
+		}
+		Thread.sleep(options.drain().toMillis());
+	}
+
+	private Map<String, Object> summary(long elapsedNanos, long receipts) {
+		double seconds = elapsedNanos / 1e9;
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("options", Map.of(
+			"screens", options.screens(),
+			"users", options.users(),
+			"rate", options.rate(),
+			"deleteRatio", options.deleteRatio(),
+			"durationSeconds", options.duration().toSeconds()));
+		summary.put("connectedScreens", connectedScreens);
+		summary.put("disconnects", disconnects.sum());
+		summary.put("elapsedSeconds", seconds);
+
+		long requests = saves.sum() + deletes.sum();
+		Map<String, Object> requestStats = new LinkedHashMap<>();
+		requestStats.put("saves", saves.sum());
+		requestStats.put("deletes", deletes.sum());
+		requestStats.put("rateLimited", rateLimited.sum());
+		requestStats.put("errors", errors.sum());
+		requestStats.put("perSecond", requests / seconds);
+		requestStats.put("responseTimeMs", percentiles(responseTimes));
+		summary.put("requests", requestStats);
+
+		Map<String, Object> eventStats = new LinkedHashMap<>();
+		eventStats.put("received", receipts);
+		eventStats.put("perSecond", receipts / seconds);
+		eventStats.put("unexpected", tracker.unexpected());
+		// requests whose event has not reached every connected screen
+		eventStats.put("incomplete", tracker.incomplete());
+		summary.put("events", eventStats);
+
+		// from the request being sent to the event reaching the last screen
+		Map<String, Object> latency = new LinkedHashMap<>();
+		var changes = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+		changes.add(tracker.latencies("order"));
+		changes.add(tracker.latencies("delete"));
+		latency.put("all", percentiles(changes));
+		latency.put("order", percentiles(tracker.latencies("order")));
+		latency.put("delete", percentiles(tracker.latencies("delete")));
+		if (options.reset()) {
+			latency.put("reset", percentiles(tracker.latencies("reset")));
+		}
+		summary.put("latencyMs", latency);
+		return summary;
+	}
+
+	private static Map<String, Object> percentiles(Histogram histogram) {
+		Map<String, Object> values = new LinkedHashMap<>();
+		values.put("count", histogram.getTotalCount());
+		values.put("p50", millis(histogram.getValueAtPercentile(50)));
+		values.put("p99", millis(histogram.getValueAtPercentile(99)));
+		values.put("p999", millis(histogram.getValueAtPercentile(99.9)));
+		values.put("max", millis(histogram.getMaxValue()));
+		return values;
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
@@ -0,0 +1,65 @@
+package it.magentalab.brunos.loadtest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options, {@code --name value}.
+ *
+ * @param rate        order requests per second, saves and deletes
+ * @param deleteRatio share of the requests deleting an order saved before
+ * @param drain       time given to the screens to receive the last events
+ * @param reset       reset the group at the end, measuring the {@code reset} event too
+ */
+record Options(URI url, URI socketUrl, String group, int screens, int users, double rate, double deleteRatio,
+			   Duration duration, Duration drain, boolean reset, String output) {
+
+	static final String USAGE = """
+		usage: java -jar brunos-loadtest.jar [options]
+		  --url URL             backend REST base URL (http://localhost:8080)
+		  --socket-url URL      Socket.IO URL (http://localhost:9090)
+		  --group NAME          order group used by the test (loadtest)
+		  --screens N           connected Socket.IO screens (40)
+		  --users N             people submitting orders (80)
+		  --rate N              order requests per second (20)
+		  --delete-ratio R      share of deletes among the requests (0.2)
+		  --duration SECONDS    length of the storm (60)
+		  --drain SECONDS       wait for the last events (5)
+		  --reset               reset the group at the end
+		  --output FILE         also write the JSON summary to FILE
+		""";
+
+	static Options parse(String[] args) {
+		Map<String, String> values = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument " + args[i]);
+			}
+			String name = args[i].substring(2);
+			if (name.equals("reset") || name.equals("help")) {
+				values.put(name, "true");
+			} else if (i + 1 < args.length) {
+				values.put(name, args[++i]);
+			} else {
+				throw new IllegalArgumentException("Missing value of --" + name);
+			}
+		}
+		if (values.containsKey("help")) {
+			return null;
+		}
+		return new Options(
+			URI.create(values.getOrDefault("url", "http://localhost:8080")),
+			URI.create(values.getOrDefault("socket-url", "http://localhost:9090")),
+			values.getOrDefault("group", "loadtest"),
+			Integer.parseInt(values.getOrDefault("screens", "40")),
+			Integer.parseInt(values.getOrDefault("users", "80")),
+			Double.parseDouble(values.getOrDefault("rate", "20")),
+			Double.parseDouble(values.getOrDefault("delete-ratio", "0.2")),
+			Duration.ofSeconds(Long.parseLong(values.getOrDefault("duration", "60"))),
+			Duration.ofSeconds(Long.parseLong(values.getOrDefault("drain", "5"))),
+			values.containsKey("reset"),
+			values.get("output"));
+	}
+}
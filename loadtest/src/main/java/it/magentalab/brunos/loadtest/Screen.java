@@ -0,0 +1,87 @@
+package it.magentalab.brunos.loadtest;
+
+import io.socket.client.IO;
+import io.socket.client.Socket;
+import io.socket.engineio.client.transports.WebSocket;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A simulated screen: a Socket.IO client of the group recording when the order events arrive,
+ * as separate events or within a {@code batch} frame.
+ */
+final class Screen {
+
+	private final Socket socket;
+	private final LatencyTracker tracker;
+	private final CountDownLatch connected;
+	private final LongAdder disconnects;
+
+	Screen(URI url, String group, LatencyTracker tracker, CountDownLatch connected, LongAdder disconnects) {
+		this.tracker = tracker;
+		this.connected = connected;
+		this.disconnects = disconnects;
+		var options = IO.Options.builder()
+			.setQuery("group=" + group)
+			.setTransports(new String[]{WebSocket.NAME})
+			.setForceNew(true)
+			.setReconnection(false)
+			.build();
+		this.socket = IO.socket(url, options);
+		socket.on(Socket.EVENT_CONNECT, args -> this.connected.countDown());
+		socket.on(Socket.EVENT_DISCONNECT, args -> this.disconnects.increment());
+		for (String event : new String[]{"order", "orders", "delete", "reset", "batch"}) {
+			socket.on(event, args -> onEvent(event, args));
+		}
+	}
+
+	void connect() {
+		socket.connect();
+	}
+
+	void close() {
+		socket.off();
+		socket.close();
+	}
+
+	private void onEvent(String event, Object[] args) {
+		switch (event) {
+			case "order" -> tracker.received(orderKey("order", (JSONObject) args[0]));
+			case "delete" -> tracker.received(orderKey("delete", (JSONObject) args[0]));
+			case "orders" -> {
+				var orders = (JSONArray) args[0];
+				for (int i = 0; i < orders.length(); i++) {
+					tracker.received(orderKey("order", orders.getJSONObject(i)));
+				}
+			}
+			case "reset" -> tracker.received("reset|");
+			case "batch" -> {
+				// [[event, args...], ...]
+				var frames = (JSONArray) args[0];
+				for (int i = 0; i < frames.length(); i++) {
+					var frame = frames.getJSONArray(i);
+					Object[] frameArgs = new Object[frame.length() - 1];
+					for (int j = 1; j < frame.length(); j++) {
+						frameArgs[j - 1] = frame.get(j);
+					}
+					onEvent(frame.getString(0), frameArgs);
+				}
+			}
+			default -> {
+				// not measured
+			}
+		}
+	}
+
+	static String orderKey(String event, String name, String article) {
+		return event + "|" + name + "|" + article;
+	}
+
+	private static String orderKey(String event, JSONObject order) {
+		return orderKey(event, order.optString("name"), order.optString("article"));
+	}
+}
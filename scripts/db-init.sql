@@ -1 +1,69 @@
--- SQL init
\ No newline at end of file
+-- SQL init (PostgreSQL only: setval, DELETE ... USING)
+-- The h2 profile does not use it, Hibernate creates the H2 schema with ddl-auto=update;
+-- on H2 keep ddl-auto=update instead of the validate of the fast-startup profile.
+
+-- orders ids come from a sequence with allocationSize=50 (was identity),
+-- aligned past the current and archived ids at the end of the script
+CREATE SEQUENCE IF NOT EXISTS orders_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS orders (
+    id                 BIGINT       NOT NULL PRIMARY KEY,
+    article            VARCHAR(255) NOT NULL,
+    name               VARCHAR(255),
+    group_id           VARCHAR(255),
+    normalized_article VARCHAR(255)
+);
+
+-- orders saved before groups existed belong to the default group
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS group_id VARCHAR(255);
+UPDATE orders SET group_id = 'default' WHERE group_id IS NULL;
+
+-- duplicates are rejected on (group, name, lower-cased and trimmed article)
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS normalized_article VARCHAR(255);
+UPDATE orders SET normalized_article = LOWER(TRIM(article)) WHERE normalized_article IS NULL;
+-- keep the oldest of the duplicates saved before the constraint existed
+DELETE FROM orders o
+USING orders older
+WHERE o.group_id = older.group_id
+  AND o.name = older.name
+  AND o.normalized_article = older.normalized_article
+  AND o.id > older.id;
+CREATE UNIQUE INDEX IF NOT EXISTS orders_group_name_article_uk ON orders (group_id, name, normalized_article);
+
+-- orders are archived under the day they were added, older orders under the day of the reset
+ALTER TABLE orders ADD COLUMN IF NOT EXISTS created_at TIMESTAMP WITH TIME ZONE;
+
+-- orders removed by a reset, stamped with the day they were ordered for
+CREATE TABLE IF NOT EXISTS orders_archive (
+    id                 BIGINT       NOT NULL PRIMARY KEY,
+    article            VARCHAR(255) NOT NULL,
+    name               VARCHAR(255),
+    group_id           VARCHAR(255),
+    normalized_article VARCHAR(255),
+    order_day          DATE         NOT NULL,
+    archived_at        TIMESTAMP WITH TIME ZONE NOT NULL
+);
+CREATE INDEX IF NOT EXISTS orders_archive_group_day_idx ON orders_archive (group_id, order_day);
+
+-- archived orders keep their id: never move the sequence backwards, e.g. when a reset has emptied orders
+SELECT setval('orders_seq', GREATEST(
+    (SELECT last_value FROM orders_seq),
+    (SELECT COALESCE(MAX(id), 0) + 50 FROM orders),
+    (SELECT COALESCE(MAX(id), 0) + 50 FROM orders_archive)));
+
+-- daily rollups of the archive, recomputed for a group and day on every reset
+CREATE TABLE IF NOT EXISTS daily_article_counts (
+    group_id           VARCHAR(255) NOT NULL,
+    order_day          DATE         NOT NULL,
+    normalized_article VARCHAR(255) NOT NULL,
+    orders             BIGINT       NOT NULL,
+    PRIMARY KEY (group_id, order_day, normalized_article)
+);
+CREATE TABLE IF NOT EXISTS daily_person_articles (
+    group_id           VARCHAR(255) NOT NULL,
+    order_day          DATE         NOT NULL,
+    name               VARCHAR(255) NOT NULL,
+    normalized_article VARCHAR(255) NOT NULL,
+    orders             BIGINT       NOT NULL,
+    PRIMARY KEY (group_id, order_day, name, normalized_article)
+);
@@ -0,0 +1,57 @@
+#!/usr/bin/env bash
+# Durability check of the journal store: orders are saved one at a time with write-through,
+# the process is killed with SIGKILL while saving, then restarted: every order that was
+# acknowledged before the kill must be there.
+#
+# usage: scripts/journal-crash-test.sh [rounds] [-- extra application arguments]
+set -euo pipefail
+
+ROUNDS=${1:-5}
+shift $(( $# > 1 ? 1 : $# ))
+[[ ${1:-} == "--" ]] && shift
+
+PORT=${PORT:-18081}
+WS_PORT=${WS_PORT:-19091}
+GROUP=crash-test
+JOURNAL_DIR=$(mktemp -d)
+JAR=$(ls target/brunos-*.jar | grep -v original | head -1)
+ACKED=target/journal-crash-acked.txt
+: > "$ACKED"
+
+start() {
+  java --enable-preview -jar "$JAR" --server.port="$PORT" --socket.io.port="$WS_PORT" \
+    --orders.store=journal --orders.durability=write-through --orders.journal.dir="$JOURNAL_DIR" \
+    --orders.journal.snapshot-interval-ms=2000 --ratelimit.orders.capacity=1000000 --ratelimit.orders.per-second=1000000 "$@" >> target/journal-crash-test.log 2>&1 &
+  pid=$!
+  until curl -sf -o /dev/null "http://localhost:$PORT/api/order?group=$GROUP&limit=1"; do
+    kill -0 "$pid" 2> /dev/null || { echo "the application exited, see target/journal-crash-test.log" >&2; exit 1; }
+    sleep 0.1
+  done
+}
+
+n=0
+for round in $(seq 1 "$ROUNDS"); do
+  start "$@"
+  # save orders until killed at a random moment
+  ( sleep "0.$(( RANDOM % 9 + 1 ))"; kill -9 "$pid" ) &
+  while kill -0 "$pid" 2> /dev/null; do
+    n=$(( n + 1 ))
+    if curl -sf -o /dev/null -X POST -H 'Content-Type: application/json' \
+        -d "{\"name\":\"user$n\",\"article\":\"article $n\",\"group\":\"$GROUP\"}" "http://localhost:$PORT/api/order"; then
+      echo "user$n" >> "$ACKED"
+    fi
+  done
+  wait "$pid" 2> /dev/null || true
+
+  start "$@"
+  stored=$(curl -sf "http://localhost:$PORT/api/order?group=$GROUP")
+  missing=0
+  while read -r name; do
+    grep -q "\"name\":\"$name\"" <<< "$stored" || { echo "round $round: acknowledged order of $name lost" >&2; missing=$(( missing + 1 )); }
+  done < "$ACKED"
+  kill "$pid"
+  wait "$pid" 2> /dev/null || true
+  [[ $missing -eq 0 ]] || exit 1
+  echo "round $round: $(wc -l < "$ACKED") acknowledged orders recovered"
+done
+rm -rf "$JOURNAL_DIR"
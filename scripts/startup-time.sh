@@ -0,0 +1,61 @@
+#!/usr/bin/env bash
+# Startup benchmark: time from the JVM launch to the first order accepted by POST /api/order.
+#
+# usage: scripts/startup-time.sh [plain|fast] [runs] [-- extra application arguments]
+#   plain: target/brunos-<version>.jar as built by mvn package
+#   fast:  the AOT classes and CDS archive in target/extracted, built by mvn -Pfast-startup package,
+#          with the fast-startup profile (the schema must exist, see scripts/db-init.sql)
+# The database comes from the usual configuration, e.g. -- --spring.profiles.active=h2
+# Every run resets the startup-benchmark group, whose orders end up in its own archive and stats.
+set -euo pipefail
+
+MODE=${1:-plain}
+RUNS=${2:-5}
+shift $(( $# > 2 ? 2 : $# ))
+[[ ${1:-} == "--" ]] && shift
+
+PORT=${PORT:-18080}
+WS_PORT=${WS_PORT:-19090}
+JAR=$(ls target/brunos-*.jar | grep -v original | head -1)
+
+case "$MODE" in
+  plain)
+    CMD=(java --enable-preview -jar "$JAR")
+    ;;
+  fast)
+    CMD=(java --enable-preview -XX:SharedArchiveFile=target/extracted/application.jsa -Dspring.aot.enabled=true
+         -jar "target/extracted/$(basename "$JAR")" --spring.profiles.active=fast-startup)
+    ;;
+  *)
+    echo "unknown mode: $MODE" >&2
+    exit 1
+    ;;
+esac
+
+times=()
+for run in $(seq 1 "$RUNS"); do
+  start=$(date +%s%N)
+  "${CMD[@]}" --server.port="$PORT" --socket.io.port="$WS_PORT" "$@" > "target/startup-$MODE-$run.log" 2>&1 &
+  pid=$!
+  until curl -sf -o /dev/null -X POST -H 'Content-Type: application/json' \
+      -d "{\"name\":\"startup\",\"article\":\"run $run\",\"group\":\"startup-benchmark\"}" \
+      "http://localhost:$PORT/api/order"; do
+    if ! kill -0 "$pid" 2> /dev/null; then
+      echo "run $run: the application exited, see target/startup-$MODE-$run.log" >&2
+      exit 1
+    fi
+    sleep 0.01
+  done
+  end=$(date +%s%N)
+  # the next run, and the next invocation, start from an empty group
+  curl -sf -o /dev/null -X DELETE "http://localhost:$PORT/api/order/all?group=startup-benchmark" \
+    || echo "run $run: cannot reset the startup-benchmark group" >&2
+  kill "$pid"
+  wait "$pid" 2> /dev/null || true
+  ms=$(( (end - start) / 1000000 ))
+  times+=("$ms")
+  echo "run $run: first order accepted after ${ms} ms"
+done
+
+sorted=($(printf '%s\n' "${times[@]}" | sort -n))
+echo "$MODE: median ${sorted[$(( RUNS / 2 ))]} ms, min ${sorted[0]} ms, max ${sorted[$(( RUNS - 1 ))]} ms"
@@ -0,0 +1,27 @@
+package it.magentalab.brunos.benchmark;
+
+import it.magentalab.brunos.Application;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Starts the application on the H2 profile, with an in-memory database and random ports.
+ */
+final class BenchmarkApplication {
+
+	private BenchmarkApplication() {
+	}
+
+	static ConfigurableApplicationContext start(String... properties) {
+		return new SpringApplicationBuilder(Application.class)
+			.profiles("h2")
+			.properties(
+				"spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1",
+				"server.port=0",
+				"socket.io.port=0",
+				"menu.upload-dir=${java.io.tmpdir}/brunos-benchmark/",
+				"logging.level.it.magentalab.brunos=warn")
+			.properties(properties)
+			.run();
+	}
+}
@@ -0,0 +1,135 @@
+package it.magentalab.brunos.benchmark;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.Transport;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.channel.ChannelFuture;
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.service.BroadcastDispatcher;
+import it.magentalab.brunos.service.ClientOutbox;
+import it.magentalab.brunos.service.ClientTransport;
+import it.magentalab.brunos.service.OrderBinaryCodec;
+import it.magentalab.brunos.service.SocketIoMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fan-out of an order event to N simulated Socket.IO clients through the real {@link BroadcastDispatcher}
+ * and {@link ClientOutbox}es, as {@code SocketIoService.sendOrder} does: from the broadcast being enqueued
+ * to the packet having been encoded for every client. Clients are stubs whose transport encodes the packet
+ * arguments as netty-socketio would, then discards them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastFanOutBenchmark {
+
+	private static final String GROUP = "benchmark";
+
+	@Param({"10", "100", "1000"})
+	public int clients;
+
+	@Param({"json", "binary"})
+	public String encoding;
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final OrderBinaryCodec binaryCodec = new OrderBinaryCodec();
+	// packets encoded by the stub transport
+	private final AtomicLong delivered = new AtomicLong();
+	private BroadcastDispatcher dispatcher;
+	private Order order;
+	private long seq;
+
+	/**
+	 * Encodes the packet arguments instead of writing them to a channel. A null future, as for a
+	 * polling client, tells the outbox the packet has been taken.
+	 */
+	private final class EncodingTransport extends ClientTransport {
+		@Override
+		public ChannelFuture send(SocketIOClient client, String event, List<Object> data) {
+			List<Object> packet = new ArrayList<>(data.size() + 1);
+			packet.add(event);
+			packet.addAll(data);
+			try {
+				objectMapper.writeValue(OutputStream.nullOutputStream(), packet);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			delivered.incrementAndGet();
+			return null;
+		}
+
+		@Override
+		public boolean hasQueuedPackets(SocketIOClient client) {
+			return false;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void startDispatcher() {
+		order = new Order();
+		order.setId(42L);
+		order.setName("bruno");
+		order.setArticle("Pizza Margherita");
+		order.setGroupId(GROUP);
+
+		var metrics = new SocketIoMetrics(new SimpleMeterRegistry());
+		var transport = new EncodingTransport();
+		List<SocketIOClient> roomClients = new ArrayList<>(clients);
+		Map<UUID, ClientOutbox> outboxes = new HashMap<>();
+		for (int i = 0; i < clients; i++) {
+			var client = stubClient(UUID.randomUUID());
+			roomClients.add(client);
+			outboxes.put(client.getSessionId(), new ClientOutbox(client, transport, GROUP, 256, ClientOutbox.OverflowPolicy.DISCONNECT,
+				Set.of("order")::contains, "snapshot", null, Runnable::run, metrics, encoding.equals("binary")));
+		}
+		// no coalescing window: one event per fan-out
+		dispatcher = new BroadcastDispatcher(objectMapper, room -> roomClients, metrics, outboxes::get, 0);
+		dispatcher.start();
+	}
+
+	@Benchmark
+	public long fanOut() {
+		long target = delivered.get() + clients;
+		long orderSeq = ++seq;
+		dispatcher.broadcastWithBinary(GROUP, "order",
+			() -> binaryCodec.encode(GROUP, OrderBinaryCodec.SAVE, orderSeq, List.of(order)), order, orderSeq);
+		while (delivered.get() < target) {
+			Thread.onSpinWait();
+		}
+		return orderSeq;
+	}
+
+	@TearDown(Level.Trial)
+	public void stopDispatcher() {
+		dispatcher.stop();
+	}
+
+	private static SocketIOClient stubClient(UUID sessionId) {
+		return (SocketIOClient) Proxy.newProxyInstance(SocketIOClient.class.getClassLoader(), new Class<?>[]{SocketIOClient.class},
+			(proxy, method, args) -> switch (method.getName()) {
+				case "getSessionId" -> sessionId;
+				case "getTransport" -> Transport.WEBSOCKET;
+				case "hashCode" -> sessionId.hashCode();
+				case "equals" -> proxy == args[0];
+				case "toString" -> "client " + sessionId;
+				default -> method.getReturnType() == boolean.class ? false : null;
+			});
+	}
+}
@@ -0,0 +1,59 @@
+package it.magentalab.brunos.benchmark;
+
+import it.magentalab.brunos.dto.OrderDto;
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.service.OrderService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of {@link OrderService#save}: new orders and duplicates rejected by the dedup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderSaveBenchmark {
+
+	private static final String GROUP = "benchmark";
+
+	@Param({"write-behind", "write-through"})
+	public String durability;
+
+	private ConfigurableApplicationContext context;
+	private OrderService orderService;
+	private final AtomicLong counter = new AtomicLong();
+
+	@Setup(Level.Trial)
+	public void startApplication() {
+		context = BenchmarkApplication.start("orders.durability=" + durability);
+		orderService = context.getBean(OrderService.class);
+	}
+
+	@Setup(Level.Iteration)
+	public void clearOrders() {
+		orderService.deleteAllOrders(GROUP);
+		orderService.save(new OrderDto("bruno", "Margherita", GROUP));
+	}
+
+	@Benchmark
+	public Order saveNew() {
+		long n = counter.incrementAndGet();
+		return orderService.save(new OrderDto("user" + n, "article " + (n % 50), GROUP));
+	}
+
+	@Benchmark
+	public Order saveDuplicate() {
+		return orderService.save(new OrderDto("bruno", "margherita ", GROUP));
+	}
+
+	@TearDown(Level.Trial)
+	public void stopApplication() {
+		context.close();
+	}
+}
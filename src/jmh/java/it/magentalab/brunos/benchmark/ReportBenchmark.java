@@ -0,0 +1,68 @@
+package it.magentalab.brunos.benchmark;
+
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.service.ArticleReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Report generation: cached report, incremental update and, as a baseline, the full regroup of all the orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReportBenchmark {
+
+	private static final int DISTINCT_ARTICLES = 200;
+
+	@Param({"10", "1000", "100000"})
+	public int orders;
+
+	private ArticleReport report;
+	private List<Order> allOrders;
+
+	@Setup(Level.Trial)
+	public void fill() {
+		report = new ArticleReport();
+		allOrders = new ArrayList<>(orders);
+		for (int i = 0; i < orders; i++) {
+			var order = new Order();
+			order.setName("user" + i);
+			order.setArticle("Article " + (i % DISTINCT_ARTICLES));
+			allOrders.add(order);
+			report.increment(order.getCleanedArticle());
+		}
+	}
+
+	@Benchmark
+	public ArticleReport.Report cachedReport() {
+		return report.getReport();
+	}
+
+	@Benchmark
+	public ArticleReport.Report saveDeleteAndReport() {
+		report.increment("article 0");
+		report.getReport();
+		report.decrement("article 0");
+		return report.getReport();
+	}
+
+	@Benchmark
+	public String fullRegroupBaseline() {
+		StringBuilder text = new StringBuilder();
+		allOrders.stream()
+			.collect(Collectors.groupingBy(Order::getCleanedArticle, Collectors.counting()))
+			.entrySet().stream()
+			.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+			.forEach(entry -> text.append(entry.getValue()).append(" x ").append(entry.getKey()).append("\n"));
+		return text.toString();
+	}
+}
@@ -0,0 +1,35 @@
+package it.magentalab.brunos.api;
+
+import it.magentalab.brunos.dto.ArticleSuggestion;
+import it.magentalab.brunos.service.OrderService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/article")
+@Slf4j
+public class ArticleController {
+
+	private static final int DEFAULT_LIMIT = 10;
+	private static final int MAX_LIMIT = 50;
+
+	@Autowired
+	private OrderService orderService;
+
+	/**
+	 * Suggests the articles to complete what the user is typing, from memory, so clients converge on the same spelling.
+	 *
+	 * @param q     The text typed so far, matched against the start of every word of the articles
+	 * @param limit Number of suggestions, at most {@value #MAX_LIMIT}
+	 * @return The matching articles, most ordered first
+	 */
+	@GetMapping("/suggest")
+	public List<ArticleSuggestion> suggest(@RequestParam String q, @RequestParam(required = false) Integer limit) {
+		int size = limit == null ? DEFAULT_LIMIT : Math.clamp(limit, 1, MAX_LIMIT);
+		log.trace("Suggesting {} articles for '{}'", size, q);
+		return orderService.suggestArticles(q, size);
+	}
+}
@@ -1,20 +1,27 @@
 package it.magentalab.brunos.api;
 
-import it.magentalab.brunos.service.SocketIoService;
+import it.magentalab.brunos.service.MenuImageCache;
+import it.magentalab.brunos.service.MenuImageService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
-import org.springframework.http.MediaType;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -23,42 +30,134 @@ import java.util.Map;
 @RequestMapping("/api/menu")
 public class MenuController {
 
-	public static final String MENU_IMAGE = "menu.jpg";
+	// Tomcat sendfile request attributes
+	private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
 
 	@Value("${menu.upload-dir}")
 	private String uploadDir;
 
-	private final SocketIoService socketIoService;
+	private final MenuImageService menuImageService;
+	private final MenuImageCache menuImageCache;
 
-	public MenuController(SocketIoService socketIoService) {
-		this.socketIoService = socketIoService;
+	public MenuController(MenuImageService menuImageService, MenuImageCache menuImageCache) {
+		this.menuImageService = menuImageService;
+		this.menuImageCache = menuImageCache;
 	}
 
+	/**
+	 * Serves the menu image, or the smallest rendition at least {@code w} pixels wide.
+	 *
+	 * @param w Width needed by the client, the original image if missing
+	 */
 	@GetMapping("/image")
-	public ResponseEntity<Resource> getMenuImage() {
-		log.debug("Fetching menu image from: {}", uploadDir);
-		try {
-			Path imagePath = Paths.get(uploadDir, MENU_IMAGE);
-			if (!Files.exists(imagePath)) {
-				log.warn("Menu image not found at path: {}", imagePath);
-				return ResponseEntity.notFound().build();
-			}
-			Resource image = new UrlResource(imagePath.toUri());
-			String contentType = Files.probeContentType(imagePath);
-			if (contentType == null) {
-				contentType = "application/octet-stream";
+	public void getMenuImage(@RequestParam(required = false) Integer w, ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+		log.debug("Fetching menu image from: {}, width {}", uploadDir, w);
+		serve(menuImageService.getImagePath(w), webRequest, response);
+	}
+
+	/**
+	 * Serves a tiny low quality version of the menu image, to show while the full image loads.
+	 */
+	@GetMapping("/image/placeholder")
+	public void getMenuImagePlaceholder(ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+		serve(menuImageService.getPlaceholderPath(), webRequest, response);
+	}
+
+	/**
+	 * Serves an image, honoring conditional requests and single byte ranges.
+	 * The content is sent with sendfile when the container supports it, otherwise with {@link FileChannel#transferTo}.
+	 */
+	private void serve(Path imagePath, ServletWebRequest webRequest, HttpServletResponse response) throws IOException {
+		var image = menuImageCache.get(imagePath);
+		if (image.isEmpty()) {
+			log.warn("Menu image not found at path: {}", imagePath);
+			response.sendError(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+		var info = image.get();
+
+		// the image changes under the same URL: clients must revalidate, which costs a 304
+		response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+		if (webRequest.checkNotModified(info.etag(), info.lastModified())) {
+			log.trace("Menu image not modified");
+			return;
+		}
+
+		response.setContentType(info.contentType().toString());
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + imagePath.getFileName() + "\"");
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+		long start = 0;
+		long end = info.size();
+		var range = parseRange(webRequest.getRequest(), info);
+		if (range != null) {
+			if (range.length == 0) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + info.size());
+				response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+				return;
 			}
+			start = range[0];
+			end = range[1];
+			response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + info.size());
+		}
+		response.setContentLengthLong(end - start);
 
-			MediaType mediaType = MediaType.parseMediaType(contentType);
-			log.trace("Content type for menu image: {}", mediaType);
+		HttpServletRequest request = webRequest.getRequest();
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+			request.setAttribute(SENDFILE_FILENAME, info.path().toAbsolutePath().toString());
+			request.setAttribute(SENDFILE_START, start);
+			request.setAttribute(SENDFILE_END, end);
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(info.path(), StandardOpenOption.READ)) {
+			WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+			long position = start;
+			while (position < end) {
+				position += channel.transferTo(position, end - position, out);
+			}
+		}
+	}
 
-			return ResponseEntity.ok()
-				.header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + image.getFilename() + "\"")
-				.contentType(mediaType)
-				.body(image);
-		} catch (IOException e) {
-			return ResponseEntity.internalServerError().build();
+	/**
+	 * Parses a single {@code bytes} range, ignored when {@code If-Range} does not match the current image.
+	 *
+	 * @return {start, end exclusive}, an empty array if not satisfiable, null to send the whole image
+	 */
+	private static long[] parseRange(HttpServletRequest request, MenuImageCache.ImageInfo info) {
+		String header = request.getHeader(HttpHeaders.RANGE);
+		if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+			return null;
+		}
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+		if (ifRange != null && !ifRange.equals(info.etag())) {
+			return null;
 		}
+		String spec = header.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0) {
+			return null;
+		}
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		long size = info.size();
+		if (first.isEmpty()) {
+			// suffix range: the last N bytes
+			if (!NumberUtils.isDigits(last)) {
+				return null;
+			}
+			long length = Math.min(Long.parseLong(last), size);
+			return length == 0 ? new long[0] : new long[]{size - length, size};
+		}
+		if (!NumberUtils.isDigits(first) || !(last.isEmpty() || NumberUtils.isDigits(last))) {
+			return null;
+		}
+		long start = Long.parseLong(first);
+		long end = last.isEmpty() ? size : Math.min(Long.parseLong(last) + 1, size);
+		return start >= size || start >= end ? new long[0] : new long[]{start, end};
 	}
 
 	@PostMapping("/upload")
@@ -69,17 +168,18 @@ public class MenuController {
 			return ResponseEntity.badRequest().body(response);
 		}
 		try {
-			Path uploadPath = Paths.get(uploadDir);
+			Path uploadPath = menuImageService.getUploadPath();
 			if (!Files.exists(uploadPath)) {
 				// Crea la cartella se non esiste
 				log.info("Creazione cartella di upload immagini: {}", uploadPath);
 				Files.createDirectories(uploadPath);
 			}
 
-			Path filePath = uploadPath.resolve(MENU_IMAGE);
-			file.transferTo(filePath.toFile());
-
-			socketIoService.menuUpdated();
+			// renditions are generated in background, 'menu-updated' is sent when they are ready
+			long generation = menuImageService.nextGeneration();
+			Path upload = Files.createTempFile(uploadPath, "upload-", ".tmp");
+			file.transferTo(upload);
+			menuImageService.process(upload, generation);
 
 			var response = buildResponse("Upload riuscito", true);
 			return ResponseEntity.ok(response);
@@ -1,15 +1,23 @@
 package it.magentalab.brunos.api;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import it.magentalab.brunos.dto.OrderDto;
 import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.service.IdempotencyCache;
 import it.magentalab.brunos.service.OrderService;
+import it.magentalab.brunos.utils.ResponseUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
 import java.util.List;
+import java.util.Map;
 
 /**
  * Controller che accetta le richieste senza verificare l'ip.
@@ -19,59 +27,160 @@ import java.util.List;
 @Slf4j
 public class OrdersController {
 
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int MAX_PAGE_SIZE = 1000;
+
 	@Value("${build.version}")
 	private String version;
 
 	@Autowired
 	private OrderService orderService;
 
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private IdempotencyCache idempotencyCache;
+
+	/**
+	 * Saves an order. Retries sent with the same {@code Idempotency-Key} get the first response.
+	 *
+	 * @return Response with HTTP status
+	 */
 	@PostMapping("")
-	public ResponseEntity<?> save(@RequestBody OrderDto orderDto) {
-		orderService.save(orderDto);
+	public ResponseEntity<?> save(@RequestBody OrderDto orderDto,
+								  @RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey) {
+		String error = orderDto.validationError();
+		if (error != null) {
+			log.warn("Invalid order {}: {}", orderDto, error);
+			return ResponseEntity.badRequest().body(Map.of("error", error));
+		}
+		return idempotencyCache.execute("save", idempotencyKey, orderDto, () -> {
+			orderService.save(orderDto);
+			return ResponseEntity.ok().build();
+		});
+	}
+
+	/**
+	 * Saves a batch of orders, e.g. a whole table at once.
+	 *
+	 * @return Response with HTTP status
+	 */
+	@PostMapping("/batch")
+	public ResponseEntity<?> saveAll(@RequestBody List<OrderDto> orderDtos) {
+		log.info("Saving {} orders", orderDtos.size());
+		for (int i = 0; i < orderDtos.size(); i++) {
+			String error = orderDtos.get(i).validationError();
+			if (error != null) {
+				log.warn("Invalid order {} of the batch: {}", i, error);
+				return ResponseEntity.badRequest().body(Map.of("error", error, "index", i));
+			}
+		}
+		orderService.saveAll(orderDtos);
 		return ResponseEntity.ok().build();
 	}
 
+	/**
+	 * Deletes an order. Retries sent with the same {@code Idempotency-Key} get the first response.
+	 *
+	 * @return Response with HTTP status
+	 */
 	@DeleteMapping("")
-	public ResponseEntity<?> delete(@RequestBody OrderDto orderDto) {
-		log.info("Deleting order: {}", orderDto);
-		orderService.delete(orderDto);
-		return ResponseEntity.ok().build();
+	public ResponseEntity<?> delete(@RequestBody OrderDto orderDto,
+									@RequestHeader(value = IdempotencyCache.HEADER, required = false) String idempotencyKey) {
+		return idempotencyCache.execute("delete", idempotencyKey, orderDto, () -> {
+			log.info("Deleting order: {}", orderDto);
+			orderService.delete(orderDto);
+			return ResponseEntity.ok().build();
+		});
 	}
 
 	/**
 	 * Generates a text report of all orders in the system.
+	 * Answers 304 when the report has not changed since the given ETag.
 	 *
+	 * @param group The order group
 	 * @return A plain text report of all orders
 	 */
 	@GetMapping(value = "/report", produces = MediaType.TEXT_PLAIN_VALUE)
-	public ResponseEntity<String> generateReport() {
+	public ResponseEntity<String> generateReport(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group,
+												 @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		var report = orderService.getReport(group);
+		String etag = ResponseUtils.etag(report.version());
+		if (ResponseUtils.etagMatches(ifNoneMatch, etag)) {
+			log.debug("Orders report not modified");
+			return ResponseUtils.notModified(etag);
+		}
 		log.info("Generating orders report");
-		String report = orderService.generateReport();
-		return ResponseEntity.ok(report);
+		return ResponseEntity.ok().eTag(etag).body(report.text());
 	}
 
 	/**
-	 * Clears all orders from the repository.
+	 * Clears all the orders of a group from the repository.
 	 *
+	 * @param group The order group
 	 * @return Response with HTTP status
 	 */
 	@DeleteMapping("/all")
-	public ResponseEntity<?> clearAllOrders() {
-		log.info("Clearing all orders from repository");
-		int deletedCount = orderService.deleteAllOrders();
-		log.info("Deleted {} orders", deletedCount);
+	public ResponseEntity<?> clearAllOrders(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group) {
+		log.info("Clearing all orders of group '{}' from repository", group);
+		int deletedCount = orderService.deleteAllOrders(group);
+		log.info("Archived {} orders", deletedCount);
 		return ResponseEntity.ok().build();
 	}
 
 	/**
-	 * Retrieves all orders from the repository.
+	 * Retrieves the orders of a group sorted by id: all of them, already encoded and answering 304
+	 * when they have not changed since the given ETag, or a page when {@code afterId} or {@code limit} are given.
 	 *
-	 * @return A list of all orders
+	 * @param group   The order group
+	 * @param afterId Id of the last order of the previous page
+	 * @param limit   Page size, at most {@value #MAX_PAGE_SIZE}
+	 * @return A list of orders
 	 */
 	@GetMapping("")
-	public ResponseEntity<List<Order>> getAllOrders() {
-		log.info("Retrieving all orders");
-		List<Order> orders = orderService.findAll();
-		return ResponseEntity.ok(orders);
+	public ResponseEntity<?> getAllOrders(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group,
+										  @RequestParam(required = false) Long afterId,
+										  @RequestParam(required = false) Integer limit,
+										  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		if (afterId != null || limit != null) {
+			int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.clamp(limit, 1, MAX_PAGE_SIZE);
+			log.debug("Retrieving {} orders of group '{}' after id {}", pageSize, group, afterId);
+			return ResponseEntity.ok(orderService.findPage(group, afterId, pageSize));
+		}
+
+		var orders = orderService.getOrdersJson(group);
+		String etag = ResponseUtils.etag(orders.version());
+		if (ResponseUtils.etagMatches(ifNoneMatch, etag)) {
+			log.debug("Orders of group '{}' not modified", group);
+			return ResponseUtils.notModified(etag);
+		}
+		log.info("Retrieving all orders of group '{}'", group);
+		return ResponseEntity.ok()
+			.eTag(etag)
+			.contentType(MediaType.APPLICATION_JSON)
+			.body(orders.json());
+	}
+
+	/**
+	 * Streams the orders of a group sorted by id as newline-delimited JSON, one order per line,
+	 * without building the whole list.
+	 *
+	 * @param group   The order group
+	 * @param afterId Id of the last order already received
+	 */
+	@GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> streamOrders(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group,
+															  @RequestParam(required = false) Long afterId) {
+		log.info("Streaming orders of group '{}' after id {}", group, afterId);
+		var orders = orderService.viewOrders(group, afterId);
+		ObjectWriter writer = objectMapper.writerFor(Order.class);
+		StreamingResponseBody body = out -> {
+			for (Order order : orders) {
+				out.write(writer.writeValueAsBytes(order));
+				out.write('\n');
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
 	}
 }
\ No newline at end of file
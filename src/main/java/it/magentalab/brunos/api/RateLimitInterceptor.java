@@ -0,0 +1,38 @@
+package it.magentalab.brunos.api;
+
+import it.magentalab.brunos.service.RateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Rejects with 429 the requests changing data beyond the rate of the remote address. Reads are not limited.
+ * <p>
+ * Behind a reverse proxy the remote address is the client one only if the proxy is listed in
+ * {@code server.tomcat.remoteip.internal-proxies}, otherwise all the clients share the proxy bucket.
+ */
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+	private final RateLimiter rateLimiter;
+
+	public RateLimitInterceptor(RateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+		String method = request.getMethod();
+		if (HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method) || HttpMethod.OPTIONS.matches(method)) {
+			return true;
+		}
+		if (rateLimiter.tryAcquire(request.getRemoteAddr())) {
+			return true;
+		}
+		response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(rateLimiter.retryAfterSeconds()));
+		response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+		return false;
+	}
+}
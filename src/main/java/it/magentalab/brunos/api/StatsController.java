@@ -0,0 +1,93 @@
+package it.magentalab.brunos.api;
+
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.service.StatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+
+/**
+ * Ordering history, from the daily rollups of the archived orders.
+ * Ranges are inclusive and default to the last year.
+ */
+@RestController
+@RequestMapping("/api/stats")
+@Slf4j
+public class StatsController {
+
+	private static final int DEFAULT_LIMIT = 10;
+	private static final int MAX_LIMIT = 100;
+
+	@Autowired
+	private StatsService statsService;
+
+	/**
+	 * @param monthly true to get the most ordered articles of each month
+	 * @return The most ordered articles of the group
+	 */
+	@GetMapping("/articles")
+	public ResponseEntity<?> topArticles(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group,
+										 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+										 @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+										 @RequestParam(defaultValue = "false") boolean monthly,
+										 @RequestParam(required = false) Integer limit) {
+		var range = Range.of(from, to);
+		if (range == null) {
+			return ResponseEntity.badRequest().build();
+		}
+		log.debug("Top articles of group '{}' from {} to {}", group, range.from(), range.to());
+		if (monthly) {
+			return ResponseEntity.ok(statsService.topArticlesByMonth(group, range.from(), range.to(), limit(limit)));
+		}
+		return ResponseEntity.ok(statsService.topArticles(group, range.from(), range.to(), limit(limit)));
+	}
+
+	/**
+	 * @return The articles a person of the group ordered most
+	 */
+	@GetMapping("/favourites")
+	public ResponseEntity<?> favourites(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group,
+										@RequestParam String name,
+										@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+										@RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+										@RequestParam(required = false) Integer limit) {
+		var range = Range.of(from, to);
+		if (range == null) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(statsService.favourites(group, name, range.from(), range.to(), limit(limit)));
+	}
+
+	/**
+	 * @return The average number of people ordering on each weekday
+	 */
+	@GetMapping("/headcount")
+	public ResponseEntity<?> headcount(@RequestParam(defaultValue = Order.DEFAULT_GROUP) String group,
+									   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+									   @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to) {
+		var range = Range.of(from, to);
+		if (range == null) {
+			return ResponseEntity.badRequest().build();
+		}
+		return ResponseEntity.ok(statsService.headcountByWeekday(group, range.from(), range.to()));
+	}
+
+	private record Range(LocalDate from, LocalDate to) {
+		/**
+		 * @return The range with the defaults applied, null if it is empty
+		 */
+		static Range of(LocalDate from, LocalDate to) {
+			LocalDate end = to == null ? LocalDate.now() : to;
+			LocalDate start = from == null ? end.minusYears(1) : from;
+			return start.isAfter(end) ? null : new Range(start, end);
+		}
+	}
+
+	private static int limit(Integer limit) {
+		return limit == null ? DEFAULT_LIMIT : Math.clamp(limit, 1, MAX_LIMIT);
+	}
+}
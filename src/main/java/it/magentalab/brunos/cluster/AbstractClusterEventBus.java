@@ -0,0 +1,67 @@
+package it.magentalab.brunos.cluster;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivery to the listeners, with the per-node dedup of local and already seen events.
+ */
+@Slf4j
+public abstract class AbstractClusterEventBus implements ClusterEventBus {
+
+	private static final int SEEN_EVENTS = 1024;
+
+	private final String nodeId;
+	private final List<Consumer<ClusterEvent>> listeners = new CopyOnWriteArrayList<>();
+
+	// guarded by itself
+	private final Map<String, Boolean> seenEvents = new LinkedHashMap<>(16, 0.75f, false) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > SEEN_EVENTS;
+		}
+	};
+
+	protected AbstractClusterEventBus(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	@Override
+	public String nodeId() {
+		return nodeId;
+	}
+
+	@Override
+	public void subscribe(Consumer<ClusterEvent> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Hands an event received from the cluster to the listeners, unless it originated on this node
+	 * or it has already been delivered.
+	 */
+	protected void deliver(ClusterEvent event) {
+		if (nodeId.equals(event.originNode())) {
+			return;
+		}
+		synchronized (seenEvents) {
+			if (seenEvents.put(event.id(), Boolean.TRUE) != null) {
+				log.debug("Cluster: duplicate event {} ignored", event.id());
+				return;
+			}
+		}
+		log.debug("Cluster: {} from node {}", event.type(), event.originNode());
+		listeners.forEach(listener -> {
+			try {
+				listener.accept(event);
+			} catch (Exception e) {
+				log.error("Cluster: error handling event {}", event, e);
+			}
+		});
+	}
+}
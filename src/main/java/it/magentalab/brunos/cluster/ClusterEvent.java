@@ -0,0 +1,51 @@
+package it.magentalab.brunos.cluster;
+
+import it.magentalab.brunos.dto.PostMessage;
+import it.magentalab.brunos.model.Order;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * An event shared between the nodes of a cluster.
+ *
+ * @param id         unique id of the event, used to drop duplicates
+ * @param originNode id of the node that produced the event
+ * @param group      order group the event belongs to, null for menu updates
+ * @param orders     saved or deleted orders
+ * @param post       relayed chat post
+ */
+public record ClusterEvent(String id, String originNode, Type type, String group, List<Order> orders, PostMessage post) {
+
+	public enum Type {
+		SAVE,
+		DELETE,
+		RESET,
+		MENU_UPDATED,
+		POST
+	}
+
+	public static ClusterEvent saved(String originNode, String group, List<Order> orders) {
+		return new ClusterEvent(newId(), originNode, Type.SAVE, group, orders, null);
+	}
+
+	public static ClusterEvent deleted(String originNode, String group, Order order) {
+		return new ClusterEvent(newId(), originNode, Type.DELETE, group, List.of(order), null);
+	}
+
+	public static ClusterEvent reset(String originNode, String group) {
+		return new ClusterEvent(newId(), originNode, Type.RESET, group, List.of(), null);
+	}
+
+	public static ClusterEvent menuUpdated(String originNode) {
+		return new ClusterEvent(newId(), originNode, Type.MENU_UPDATED, null, List.of(), null);
+	}
+
+	public static ClusterEvent post(String originNode, String group, PostMessage post) {
+		return new ClusterEvent(newId(), originNode, Type.POST, group, List.of(), post);
+	}
+
+	private static String newId() {
+		return UUID.randomUUID().toString();
+	}
+}
@@ -0,0 +1,26 @@
+package it.magentalab.brunos.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * Shares order, menu and post events between the backend nodes, so that clients connected
+ * to any node see the same state. Implementations are selected with {@code cluster.bus}.
+ */
+public interface ClusterEventBus {
+
+	/**
+	 * @return Id of this node, stamped on the events it publishes
+	 */
+	String nodeId();
+
+	/**
+	 * Sends an event produced by this node to the other nodes.
+	 */
+	void publish(ClusterEvent event);
+
+	/**
+	 * Registers a listener for the events produced by the other nodes.
+	 * Events published by this node and duplicates are never delivered.
+	 */
+	void subscribe(Consumer<ClusterEvent> listener);
+}
@@ -0,0 +1,43 @@
+package it.magentalab.brunos.cluster;
+
+import it.magentalab.brunos.service.OrderBook;
+import it.magentalab.brunos.service.SocketIoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Applies the events received from the other nodes to the local order book
+ * and forwards them to the locally connected clients.
+ */
+@Component
+@Slf4j
+public class ClusterSync {
+
+	private final OrderBook orderBook;
+	private final SocketIoService socketIoService;
+
+	@Autowired
+	public ClusterSync(ClusterEventBus clusterEventBus, OrderBook orderBook, SocketIoService socketIoService) {
+		this.orderBook = orderBook;
+		this.socketIoService = socketIoService;
+
+		clusterEventBus.subscribe(this::onEvent);
+	}
+
+	private void onEvent(ClusterEvent event) {
+		switch (event.type()) {
+			case SAVE -> {
+				var changes = orderBook.applyRemoteSaves(event.orders());
+				if (!changes.isEmpty()) {
+					socketIoService.sendOrders(changes);
+				}
+			}
+			case DELETE -> event.orders().forEach(order -> orderBook.applyRemoteDelete(order)
+				.ifPresent(socketIoService::deleteOrder));
+			case RESET -> socketIoService.reset(orderBook.applyRemoteReset(event.group()).change());
+			case MENU_UPDATED -> socketIoService.broadcastMenuUpdated();
+			case POST -> socketIoService.relayPost(event.group(), event.post());
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package it.magentalab.brunos.cluster;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-JVM bus connecting all the application contexts started in the same JVM,
+ * to run several nodes in tests.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.bus", havingValue = "loopback")
+public class LoopbackClusterEventBus extends AbstractClusterEventBus {
+
+	private static final List<LoopbackClusterEventBus> NODES = new CopyOnWriteArrayList<>();
+
+	public LoopbackClusterEventBus() {
+		super(UUID.randomUUID().toString());
+		NODES.add(this);
+	}
+
+	@Override
+	public void publish(ClusterEvent event) {
+		NODES.forEach(node -> node.deliver(event));
+	}
+
+	@PreDestroy
+	public void leave() {
+		NODES.remove(this);
+	}
+}
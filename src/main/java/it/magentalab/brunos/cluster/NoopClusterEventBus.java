@@ -0,0 +1,23 @@
+package it.magentalab.brunos.cluster;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.UUID;
+
+/**
+ * Single instance deployment: nothing is shared.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.bus", havingValue = "none", matchIfMissing = true)
+public class NoopClusterEventBus extends AbstractClusterEventBus {
+
+	public NoopClusterEventBus() {
+		super(UUID.randomUUID().toString());
+	}
+
+	@Override
+	public void publish(ClusterEvent event) {
+		// single node
+	}
+}
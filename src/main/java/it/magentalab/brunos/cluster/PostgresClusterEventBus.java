@@ -0,0 +1,189 @@
+package it.magentalab.brunos.cluster;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.magentalab.brunos.dto.PostMessage;
+import it.magentalab.brunos.model.Order;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cluster bus over PostgreSQL {@code LISTEN/NOTIFY}: events are published with {@code pg_notify}
+ * and received on a dedicated connection, outside the pool.
+ * <p>
+ * Events are encoded on the caller thread and notified in order by a single background thread, off the
+ * request path: an event the database refuses is logged and lost, the other nodes miss that change.
+ */
+@Component
+@ConditionalOnProperty(name = "cluster.bus", havingValue = "postgres")
+@Slf4j
+public class PostgresClusterEventBus extends AbstractClusterEventBus {
+
+	// NOTIFY payloads must be shorter than 8000 bytes
+	private static final int MAX_PAYLOAD_BYTES = 7900;
+	private static final long RECONNECT_DELAY_MS = 5000;
+
+	private final JdbcTemplate jdbcTemplate;
+	private final DataSource listenerDataSource;
+	private final ObjectMapper objectMapper;
+	private final String channel;
+	private final Thread listener;
+	private final ExecutorService publisher = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("cluster-publisher").factory());
+
+	private volatile boolean running;
+
+	public PostgresClusterEventBus(JdbcTemplate jdbcTemplate, DataSourceProperties dataSourceProperties, ObjectMapper objectMapper,
+								   @Value("${cluster.postgres.channel:brunos_events}") String channel) {
+		super(UUID.randomUUID().toString());
+		if (!channel.matches("[a-z_][a-z0-9_]*")) {
+			throw new IllegalArgumentException("Invalid cluster channel name: " + channel);
+		}
+		this.jdbcTemplate = jdbcTemplate;
+		this.listenerDataSource = dataSourceProperties.initializeDataSourceBuilder()
+			.type(SimpleDriverDataSource.class)
+			.build();
+		this.objectMapper = objectMapper;
+		this.channel = channel;
+		this.listener = Thread.ofPlatform()
+			.name("cluster-listener")
+			.daemon()
+			.unstarted(this::listen);
+	}
+
+	@PostConstruct
+	public void start() {
+		running = true;
+		listener.start();
+		log.info("Cluster: node {} listening on channel '{}'", nodeId(), channel);
+	}
+
+	@PreDestroy
+	public void stop() {
+		running = false;
+		listener.interrupt();
+		publisher.shutdown();
+	}
+
+	@Override
+	public void publish(ClusterEvent event) {
+		// encoded now, the orders may change once the request has returned
+		List<String> payloads = new ArrayList<>();
+		encode(event, payloads);
+		if (payloads.isEmpty()) {
+			return;
+		}
+		publisher.execute(() -> {
+			try {
+				payloads.forEach(payload -> jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", channel, payload));
+			} catch (DataAccessException e) {
+				log.warn("Cluster: cannot publish {} event {} of group {}: {}", event.type(), event.id(), event.group(), e.getMessage());
+			}
+		});
+	}
+
+	private void encode(ClusterEvent event, List<String> payloads) {
+		try {
+			String payload = objectMapper.writeValueAsString(event);
+			int excess = payload.getBytes(StandardCharsets.UTF_8).length - MAX_PAYLOAD_BYTES;
+			if (excess > 0 && event.orders().size() > 1) {
+				// too big for a single notification: split the orders
+				int half = event.orders().size() / 2;
+				encode(withOrders(event, event.orders().subList(0, half)), payloads);
+				encode(withOrders(event, event.orders().subList(half, event.orders().size())), payloads);
+				return;
+			}
+			if (excess > 0 && event.post() != null) {
+				payload = objectMapper.writeValueAsString(withPost(event, truncate(event.post(), excess)));
+				excess = payload.getBytes(StandardCharsets.UTF_8).length - MAX_PAYLOAD_BYTES;
+			}
+			if (excess > 0) {
+				// a single order cannot get here, its fields are limited to OrderDto.MAX_LENGTH characters
+				log.error("Cluster: {} event {} of group {} is {} bytes over the notification limit, not published",
+					event.type(), event.id(), event.group(), excess);
+				return;
+			}
+			payloads.add(payload);
+		} catch (JsonProcessingException e) {
+			log.error("Cluster: cannot encode event {}", event, e);
+		}
+	}
+
+	private static ClusterEvent withOrders(ClusterEvent event, List<Order> orders) {
+		return new ClusterEvent(UUID.randomUUID().toString(), event.originNode(), event.type(), event.group(), List.copyOf(orders), event.post());
+	}
+
+	private static ClusterEvent withPost(ClusterEvent event, PostMessage post) {
+		return new ClusterEvent(event.id(), event.originNode(), event.type(), event.group(), event.orders(), post);
+	}
+
+	/**
+	 * Cuts the text of a post by at least {@code excessBytes} bytes: every character takes at least one byte in the payload.
+	 */
+	private static PostMessage truncate(PostMessage post, int excessBytes) {
+		String text = post.post() == null ? "" : post.post();
+		// room for the ellipsis, three bytes
+		int end = Math.max(0, text.length() - excessBytes - 3);
+		if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+			end--;
+		}
+		log.warn("Cluster: post of {} truncated from {} to {} characters", post.author(), text.length(), end);
+		return new PostMessage(post.author(), text.substring(0, end) + "\u2026");
+	}
+
+	private void listen() {
+		while (running) {
+			try (Connection connection = listenerDataSource.getConnection();
+				 Statement statement = connection.createStatement()) {
+				statement.execute("LISTEN " + channel);
+				PGConnection pgConnection = connection.unwrap(PGConnection.class);
+				while (running) {
+					PGNotification[] notifications = pgConnection.getNotifications(1000);
+					if (notifications != null) {
+						for (PGNotification notification : notifications) {
+							receive(notification.getParameter());
+						}
+					}
+				}
+			} catch (SQLException e) {
+				if (running) {
+					log.warn("Cluster: listener connection lost, retrying in {} ms: {}", RECONNECT_DELAY_MS, e.getMessage());
+					try {
+						Thread.sleep(RECONNECT_DELAY_MS);
+					} catch (InterruptedException ie) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	private void receive(String payload) {
+		try {
+			deliver(objectMapper.readValue(payload, ClusterEvent.class));
+		} catch (JsonProcessingException e) {
+			log.error("Cluster: cannot decode event: {}", payload, e);
+		}
+	}
+}
@@ -0,0 +1,51 @@
+package it.magentalab.brunos.config;
+
+import it.magentalab.brunos.cluster.ClusterEventBus;
+import it.magentalab.brunos.cluster.LoopbackClusterEventBus;
+import it.magentalab.brunos.cluster.NoopClusterEventBus;
+import it.magentalab.brunos.cluster.PostgresClusterEventBus;
+import it.magentalab.brunos.store.JournalOrderStore;
+import it.magentalab.brunos.store.JpaOrderStore;
+import it.magentalab.brunos.store.OrderStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aot.AotDetector;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * With the AOT classes of the fast-startup build the {@code @ConditionalOnProperty} implementations have been
+ * chosen at build time: fails the start if {@code orders.store} or {@code cluster.bus} ask for other ones, which
+ * would otherwise be silently ignored.
+ */
+@Component
+@Slf4j
+public class AotConditionsCheck {
+
+	@Autowired
+	public AotConditionsCheck(Environment environment, OrderStore orderStore, ClusterEventBus clusterEventBus) {
+		if (!AotDetector.useGeneratedArtifacts()) {
+			return;
+		}
+		check(environment, "orders.store", "jpa", orderStore, Map.of(
+			"jpa", JpaOrderStore.class,
+			"journal", JournalOrderStore.class));
+		check(environment, "cluster.bus", "none", clusterEventBus, Map.of(
+			"none", NoopClusterEventBus.class,
+			"loopback", LoopbackClusterEventBus.class,
+			"postgres", PostgresClusterEventBus.class));
+	}
+
+	private static void check(Environment environment, String property, String defaultValue, Object bean, Map<String, Class<?>> implementations) {
+		String value = environment.getProperty(property, defaultValue).toLowerCase(Locale.ROOT);
+		Class<?> expected = implementations.get(value);
+		if (expected != null && !expected.isInstance(bean)) {
+			throw new IllegalStateException("%s=%s, but the AOT build uses %s: rebuild with -Daot.%s=%s"
+				.formatted(property, value, bean.getClass().getSimpleName(), property, value));
+		}
+		log.debug("AOT build: {}={} ({})", property, value, bean.getClass().getSimpleName());
+	}
+}
@@ -0,0 +1,34 @@
+package it.magentalab.brunos.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.magentalab.brunos.service.RateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RateLimitConfig {
+
+	@Value("${ratelimit.max-keys:10000}")
+	private int maxKeys;
+
+	/**
+	 * Limits the chat posts of each Socket.IO session.
+	 */
+	@Bean
+	public RateLimiter postRateLimiter(MeterRegistry registry,
+									   @Value("${ratelimit.post.capacity:10}") int capacity,
+									   @Value("${ratelimit.post.per-second:1}") double perSecond) {
+		return new RateLimiter("post", capacity, perSecond, maxKeys, registry);
+	}
+
+	/**
+	 * Limits the order changes of each remote address.
+	 */
+	@Bean
+	public RateLimiter orderRateLimiter(MeterRegistry registry,
+										@Value("${ratelimit.orders.capacity:30}") int capacity,
+										@Value("${ratelimit.orders.per-second:5}") double perSecond) {
+		return new RateLimiter("orders", capacity, perSecond, maxKeys, registry);
+	}
+}
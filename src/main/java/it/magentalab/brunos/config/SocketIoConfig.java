@@ -4,8 +4,10 @@ import com.corundumstudio.socketio.SocketIOServer;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
 import org.springframework.web.bind.annotation.CrossOrigin;
 
 @CrossOrigin
@@ -37,13 +39,26 @@ public class SocketIoConfig {
     // Forza l'uso immediato dei WebSocket, se disponibili
     //config.setTransports(Transport.WEBSOCKET);
 
+    // started once the application is ready, see start()
     this.server = new SocketIOServer(config);
-    this.server.start();
-
-    log.info("Created socket connection on port={} host={}", port, host);
     return server;
 }
 
+	/**
+	 * Binds the Socket.IO port when the context is ready, when the listeners are registered and the
+	 * orders loaded, without waiting for the bind: startup is not slowed down by it.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		server.startAsync().addListener(future -> {
+			if (future.isSuccess()) {
+				log.info("Created socket connection on port={} host={}", port, host);
+			} else {
+				log.error("Socket.IO server failed to start on port={} host={}", port, host, future.cause());
+			}
+		});
+	}
+
 	@PreDestroy
 	public void destroy(){
 		log.info("Destroying socket connection");
@@ -1,5 +1,8 @@
 package it.magentalab.brunos.config;
 
+import it.magentalab.brunos.api.RateLimitInterceptor;
+import it.magentalab.brunos.service.RateLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
@@ -18,6 +21,12 @@ import java.util.Arrays;
 @EnableWebSecurity
 public class WebSecurityConfig implements WebMvcConfigurer {
 
+	private final RateLimiter orderRateLimiter;
+
+	public WebSecurityConfig(@Qualifier("orderRateLimiter") RateLimiter orderRateLimiter) {
+		this.orderRateLimiter = orderRateLimiter;
+	}
+
 	@Bean
 	public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
 		http
@@ -50,4 +59,10 @@ public class WebSecurityConfig implements WebMvcConfigurer {
 			.allowedHeaders("*")
 			.allowCredentials(true);
 	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(new RateLimitInterceptor(orderRateLimiter))
+			.addPathPatterns("/api/order/**");
+	}
 }
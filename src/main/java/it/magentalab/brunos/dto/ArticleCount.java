@@ -0,0 +1,4 @@
+package it.magentalab.brunos.dto;
+
+public record ArticleCount(String article, long orders) {
+}
@@ -0,0 +1,7 @@
+package it.magentalab.brunos.dto;
+
+/**
+ * A post with its sequence number, in the order posts have been relayed by this node.
+ */
+public record ChatPost(long seq, String author, String post) {
+}
@@ -0,0 +1,9 @@
+package it.magentalab.brunos.dto;
+
+/**
+ * Sent to a client on connect, so it can send {@code epoch} and {@code lastSeq} when it reconnects.
+ *
+ * @param seq sequence number of the last order change at connection time
+ */
+public record InitMessage(String epoch, long seq) {
+}
@@ -0,0 +1,7 @@
+package it.magentalab.brunos.dto;
+
+import java.time.YearMonth;
+import java.util.List;
+
+public record MonthlyArticles(YearMonth month, List<ArticleCount> articles) {
+}
@@ -1,4 +1,30 @@
 package it.magentalab.brunos.dto;
 
-public record OrderDto(String name, String article) {
+import it.magentalab.brunos.model.Order;
+import org.apache.commons.lang3.StringUtils;
+
+public record OrderDto(String name, String article, String group) {
+
+	// length of the orders columns
+	public static final int MAX_LENGTH = 255;
+
+	public OrderDto {
+		group = StringUtils.defaultIfBlank(group, Order.DEFAULT_GROUP);
+	}
+
+	/**
+	 * @return Why the order can't be saved, null if it is valid
+	 */
+	public String validationError() {
+		if (StringUtils.isBlank(name)) {
+			return "name is required";
+		}
+		if (StringUtils.isBlank(article)) {
+			return "article is required";
+		}
+		if (name.length() > MAX_LENGTH || article.length() > MAX_LENGTH || group.length() > MAX_LENGTH) {
+			return "name, article and group must be at most " + MAX_LENGTH + " characters";
+		}
+		return null;
+	}
 }
@@ -0,0 +1,8 @@
+package it.magentalab.brunos.dto;
+
+import it.magentalab.brunos.model.Order;
+
+import java.util.List;
+
+public record OrderSnapshot(String epoch, long seq, List<Order> orders) {
+}
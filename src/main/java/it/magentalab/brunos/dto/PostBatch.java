@@ -0,0 +1,11 @@
+package it.magentalab.brunos.dto;
+
+import java.util.List;
+
+/**
+ * Recent posts sent to a connecting client.
+ *
+ * @param seq sequence number of the last post relayed so far
+ */
+public record PostBatch(long seq, List<ChatPost> posts) {
+}
@@ -0,0 +1,9 @@
+package it.magentalab.brunos.dto;
+
+import java.time.DayOfWeek;
+
+/**
+ * @param days number of days with orders the average is computed on
+ */
+public record WeekdayHeadcount(DayOfWeek weekday, double average, int days) {
+}
@@ -0,0 +1,45 @@
+package it.magentalab.brunos.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+/**
+ * Number of orders of an article by a person in a group on a day, rolled up from the archive.
+ */
+@Entity
+@Table(name = "daily_person_articles")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class DailyPersonArticle {
+
+	@Embeddable
+	@Data
+	@AllArgsConstructor
+	@NoArgsConstructor
+	public static class Key implements Serializable {
+
+		@Column(name = "group_id", nullable = false)
+		private String groupId;
+
+		@Column(name = "order_day", nullable = false)
+		private LocalDate orderDay;
+
+		@Column(nullable = false)
+		private String name;
+
+		@Column(name = "normalized_article", nullable = false)
+		private String normalizedArticle;
+	}
+
+	@EmbeddedId
+	private Key id;
+
+	@Column(nullable = false)
+	private long orders;
+}
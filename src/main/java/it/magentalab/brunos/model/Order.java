@@ -1,18 +1,28 @@
 package it.magentalab.brunos.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
 
+import java.time.Instant;
+
 @Entity
-@Table(name = "orders")
+@Table(name = "orders", uniqueConstraints = @UniqueConstraint(name = "orders_group_name_article_uk",
+	columnNames = {"group_id", "name", "normalized_article"}))
 @Getter
 @Setter
 @AllArgsConstructor
 @NoArgsConstructor
 @ToString
 public class Order {
+	public static final String DEFAULT_GROUP = "default";
+	// ids reserved by each value of orders_seq, its allocationSize and increment
+	public static final int ID_BLOCK_SIZE = 50;
+
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	// sequence (not identity) ids let Hibernate batch the inserts
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "orders_seq")
+	@SequenceGenerator(name = "orders_seq", sequenceName = "orders_seq", allocationSize = ID_BLOCK_SIZE)
 	private Long id;
 
 	@Column(nullable = false)
@@ -20,7 +30,32 @@ public class Order {
 
 	private String name;
 
+	@Column(name = "group_id")
+	private String groupId;
+
+	// when the order was added, its archive day; null for orders added before it was recorded.
+	// Not sent to clients, nor to other nodes: the store of the node that added the order keeps it
+	@Column(name = "created_at")
+	@JsonIgnore
+	private Instant createdAt;
+
+	// cleaned article, kept in sync by setArticle: duplicates are rejected by the unique constraint
+	@Column(name = "normalized_article")
+	@Setter(AccessLevel.NONE)
+	@ToString.Exclude
+	@JsonIgnore
+	private String normalizedArticle;
+
+	public void setArticle(String article) {
+		this.article = article;
+		this.normalizedArticle = clean(article);
+	}
+
 	public String getCleanedArticle() {
+		return clean(article);
+	}
+
+	public static String clean(String article) {
 		return article == null ? null : article.toLowerCase().trim();
 	}
 
@@ -0,0 +1,41 @@
+package it.magentalab.brunos.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.Instant;
+import java.time.LocalDate;
+
+/**
+ * An order removed by a reset, stamped with the day it was ordered for.
+ */
+@Entity
+@Table(name = "orders_archive", indexes = @Index(name = "orders_archive_group_day_idx", columnList = "group_id, order_day"))
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+public class OrderArchive {
+
+	// id of the archived order
+	@Id
+	private Long id;
+
+	@Column(nullable = false)
+	private String article;
+
+	private String name;
+
+	@Column(name = "group_id")
+	private String groupId;
+
+	@Column(name = "normalized_article")
+	private String normalizedArticle;
+
+	@Column(name = "order_day", nullable = false)
+	private LocalDate orderDay;
+
+	@Column(name = "archived_at", nullable = false)
+	private Instant archivedAt;
+}
@@ -0,0 +1,49 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.dto.ArticleCount;
+import it.magentalab.brunos.model.DailyArticleCount;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface DailyArticleCountRepository extends JpaRepository<DailyArticleCount, DailyArticleCount.Key> {
+
+    @Modifying
+    @Query("DELETE FROM DailyArticleCount d WHERE d.id.groupId = :groupId AND d.id.orderDay = :day")
+    int deleteDay(String groupId, LocalDate day);
+
+    /**
+     * Counts the archived orders of a group on a day by article.
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO daily_article_counts (group_id, order_day, normalized_article, orders)
+        SELECT group_id, order_day, COALESCE(normalized_article, LOWER(TRIM(article))), COUNT(*)
+        FROM orders_archive WHERE group_id = :groupId AND order_day = :day
+        GROUP BY group_id, order_day, COALESCE(normalized_article, LOWER(TRIM(article)))""", nativeQuery = true)
+    int rollUp(String groupId, LocalDate day);
+
+    @Query("""
+        SELECT new it.magentalab.brunos.dto.ArticleCount(d.id.normalizedArticle, SUM(d.orders))
+        FROM DailyArticleCount d
+        WHERE d.id.groupId = :groupId AND d.id.orderDay BETWEEN :from AND :to
+        GROUP BY d.id.normalizedArticle
+        ORDER BY SUM(d.orders) DESC, d.id.normalizedArticle""")
+    List<ArticleCount> topArticles(String groupId, LocalDate from, LocalDate to, Limit limit);
+
+    /**
+     * @return {year, month, article, orders} rows
+     */
+    @Query("""
+        SELECT EXTRACT(YEAR FROM d.id.orderDay), EXTRACT(MONTH FROM d.id.orderDay), d.id.normalizedArticle, SUM(d.orders)
+        FROM DailyArticleCount d
+        WHERE d.id.groupId = :groupId AND d.id.orderDay BETWEEN :from AND :to
+        GROUP BY EXTRACT(YEAR FROM d.id.orderDay), EXTRACT(MONTH FROM d.id.orderDay), d.id.normalizedArticle""")
+    List<Object[]> countByMonth(String groupId, LocalDate from, LocalDate to);
+}
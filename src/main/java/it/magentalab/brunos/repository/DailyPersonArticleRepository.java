@@ -0,0 +1,49 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.dto.ArticleCount;
+import it.magentalab.brunos.model.DailyPersonArticle;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface DailyPersonArticleRepository extends JpaRepository<DailyPersonArticle, DailyPersonArticle.Key> {
+
+    @Modifying
+    @Query("DELETE FROM DailyPersonArticle d WHERE d.id.groupId = :groupId AND d.id.orderDay = :day")
+    int deleteDay(String groupId, LocalDate day);
+
+    /**
+     * Counts the archived orders of a group on a day by person and article.
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO daily_person_articles (group_id, order_day, name, normalized_article, orders)
+        SELECT group_id, order_day, COALESCE(name, ''), COALESCE(normalized_article, LOWER(TRIM(article))), COUNT(*)
+        FROM orders_archive WHERE group_id = :groupId AND order_day = :day
+        GROUP BY group_id, order_day, COALESCE(name, ''), COALESCE(normalized_article, LOWER(TRIM(article)))""", nativeQuery = true)
+    int rollUp(String groupId, LocalDate day);
+
+    @Query("""
+        SELECT new it.magentalab.brunos.dto.ArticleCount(d.id.normalizedArticle, SUM(d.orders))
+        FROM DailyPersonArticle d
+        WHERE d.id.groupId = :groupId AND d.id.name = :name AND d.id.orderDay BETWEEN :from AND :to
+        GROUP BY d.id.normalizedArticle
+        ORDER BY SUM(d.orders) DESC, d.id.normalizedArticle""")
+    List<ArticleCount> favourites(String groupId, String name, LocalDate from, LocalDate to, Limit limit);
+
+    /**
+     * @return {day, number of people with orders} rows
+     */
+    @Query("""
+        SELECT d.id.orderDay, COUNT(DISTINCT d.id.name)
+        FROM DailyPersonArticle d
+        WHERE d.id.groupId = :groupId AND d.id.orderDay BETWEEN :from AND :to
+        GROUP BY d.id.orderDay""")
+    List<Object[]> headcounts(String groupId, LocalDate from, LocalDate to);
+}
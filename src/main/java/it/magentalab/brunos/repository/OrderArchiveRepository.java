@@ -0,0 +1,45 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.model.OrderArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.List;
+
+@Repository
+public interface OrderArchiveRepository extends JpaRepository<OrderArchive, Long>, OrderArchiveRepositoryCustom {
+
+    /**
+     * Copies the orders of a group to the archive in a single statement, stamped with the day they were
+     * added in the session time zone, the JVM one, or with {@code orderDay} if that is not known.
+     *
+     * @return Number of archived orders
+     */
+    @Modifying
+    @Query(value = """
+        INSERT INTO orders_archive (id, article, name, group_id, normalized_article, order_day, archived_at)
+        SELECT id, article, name, group_id, normalized_article, COALESCE(CAST(created_at AS DATE), :orderDay), CURRENT_TIMESTAMP
+        FROM orders WHERE group_id = :groupId""", nativeQuery = true)
+    int archiveGroup(String groupId, LocalDate orderDay);
+
+    /**
+     * @return {group, day} of the archived orders that have not been rolled up yet
+     */
+    @Query("""
+        SELECT DISTINCT a.groupId, a.orderDay FROM OrderArchive a
+        WHERE a.groupId IS NOT NULL AND NOT EXISTS (
+            SELECT 1 FROM DailyArticleCount d WHERE d.id.groupId = a.groupId AND d.id.orderDay = a.orderDay)""")
+    List<Object[]> findDaysWithoutRollup();
+
+    /**
+     * @return {article, orders} rows, one for each spelling of the articles
+     */
+    @Query("SELECT a.article, COUNT(a) FROM OrderArchive a GROUP BY a.article")
+    List<Object[]> countByArticle();
+
+    @Query("SELECT COALESCE(MAX(a.id), 0) FROM OrderArchive a")
+    long findMaxId();
+}
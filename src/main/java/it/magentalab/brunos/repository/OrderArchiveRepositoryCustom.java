@@ -0,0 +1,13 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.model.OrderArchive;
+
+import java.util.List;
+
+public interface OrderArchiveRepositoryCustom {
+
+    /**
+     * Writes the archive rows in a single batch, replacing the rows with the same id.
+     */
+    void upsertAll(List<OrderArchive> archived);
+}
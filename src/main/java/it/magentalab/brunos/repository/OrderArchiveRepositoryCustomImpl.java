@@ -0,0 +1,61 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.model.OrderArchive;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Archive rows written with a batched upsert: saveAll merges entities with an assigned id,
+ * a select and a statement per row.
+ */
+public class OrderArchiveRepositoryCustomImpl implements OrderArchiveRepositoryCustom {
+
+    private static final String POSTGRES_UPSERT = """
+        INSERT INTO orders_archive (id, article, name, group_id, normalized_article, order_day, archived_at)
+        VALUES (?, ?, ?, ?, ?, ?, ?)
+        ON CONFLICT (id) DO UPDATE SET article = EXCLUDED.article, name = EXCLUDED.name, group_id = EXCLUDED.group_id,
+            normalized_article = EXCLUDED.normalized_article, order_day = EXCLUDED.order_day, archived_at = EXCLUDED.archived_at""";
+
+    // H2 has no ON CONFLICT, the standard MERGE does the same
+    private static final String MERGE_UPSERT = """
+        MERGE INTO orders_archive a
+        USING (VALUES (CAST(? AS BIGINT), ?, ?, ?, ?, CAST(? AS DATE), CAST(? AS TIMESTAMP WITH TIME ZONE)))
+            AS s (id, article, name, group_id, normalized_article, order_day, archived_at)
+        ON a.id = s.id
+        WHEN MATCHED THEN UPDATE SET article = s.article, name = s.name, group_id = s.group_id,
+            normalized_article = s.normalized_article, order_day = s.order_day, archived_at = s.archived_at
+        WHEN NOT MATCHED THEN INSERT (id, article, name, group_id, normalized_article, order_day, archived_at)
+        VALUES (s.id, s.article, s.name, s.group_id, s.normalized_article, s.order_day, s.archived_at)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean postgres;
+
+    public OrderArchiveRepositoryCustomImpl(JdbcTemplate jdbcTemplate, DataSource dataSource) throws MetaDataAccessException {
+        this.jdbcTemplate = jdbcTemplate;
+        String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        this.postgres = "PostgreSQL".equalsIgnoreCase(product);
+    }
+
+    @Override
+    public void upsertAll(List<OrderArchive> archived) {
+        if (archived.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(postgres ? POSTGRES_UPSERT : MERGE_UPSERT, archived, archived.size(), (ps, row) -> {
+            ps.setLong(1, row.getId());
+            ps.setString(2, row.getArticle());
+            ps.setString(3, row.getName());
+            ps.setString(4, row.getGroupId());
+            ps.setString(5, row.getNormalizedArticle());
+            ps.setObject(6, row.getOrderDay());
+            ps.setObject(7, OffsetDateTime.ofInstant(row.getArchivedAt(), ZoneOffset.UTC));
+        });
+    }
+}
@@ -2,11 +2,39 @@ package it.magentalab.brunos.repository;
 
 import it.magentalab.brunos.model.Order;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDate;
 import java.util.List;
 
 @Repository
-public interface OrderRepository extends JpaRepository<Order, Long> {
-    List<Order> findByNameAndArticle(String name, String article);
+public interface OrderRepository extends JpaRepository<Order, Long>, OrderRepositoryCustom {
+
+    @Modifying
+    @Query("delete from Order o where o.groupId = :groupId")
+    int deleteByGroup(String groupId);
+
+    @Modifying
+    @Query("delete from Order o where o.groupId = :groupId and o.name = :name and o.normalizedArticle = :normalizedArticle")
+    int deleteByKey(String groupId, String name, String normalizedArticle);
+
+    @Query("SELECT COALESCE(MAX(o.id), 0) FROM Order o")
+    long findMaxId();
+
+    /**
+     * @return The days the orders of the group were added, {@code orderDay} for those without a creation time
+     */
+    @Query("SELECT DISTINCT COALESCE(CAST(o.createdAt AS LocalDate), :orderDay) FROM Order o WHERE o.groupId = :groupId")
+    List<LocalDate> findOrderDays(String groupId, LocalDate orderDay);
+
+    @Modifying
+    @Query("update Order o set o.groupId = :groupId where o.groupId is null")
+    int assignGroup(String groupId);
+
+    // orders saved before the normalized article existed
+    @Modifying
+    @Query("update Order o set o.normalizedArticle = lower(trim(o.article)) where o.normalizedArticle is null")
+    int normalizeArticles();
 }
\ No newline at end of file
@@ -0,0 +1,34 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.model.Order;
+
+import java.util.List;
+
+public interface OrderRepositoryCustom {
+
+    /**
+     * Reserves a block of order ids, the same way Hibernate's pooled optimizer does.
+     *
+     * @return The highest id of the block, the block being the {@link Order#ID_BLOCK_SIZE} ids up to it
+     */
+    long nextIdBlock();
+
+    /**
+     * Moves orders_seq past the given id if the next block would reach it, never backwards,
+     * e.g. on a database upgraded from identity ids. Takes a block.
+     */
+    void alignIdSequence(long maxId);
+
+    /**
+     * Inserts the orders, with their id already assigned, skipping the ones that clash with an existing
+     * order of the same group, name and normalized article. One statement per order, sent as a single batch.
+     *
+     * @return For every order, true if it has been inserted
+     */
+    boolean[] insertIfAbsent(List<Order> orders);
+
+    /**
+     * @return The id of the order with the same group, name and normalized article, null if none
+     */
+    Long findIdByKey(String groupId, String name, String normalizedArticle);
+}
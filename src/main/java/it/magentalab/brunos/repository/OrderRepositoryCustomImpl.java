@@ -0,0 +1,98 @@
+package it.magentalab.brunos.repository;
+
+import it.magentalab.brunos.model.Order;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.support.MetaDataAccessException;
+
+import javax.sql.DataSource;
+import java.sql.DatabaseMetaData;
+import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * Order writes that JPA can't express: a conditional insert relying on the unique
+ * (group_id, name, normalized_article) constraint, so duplicates are rejected by the
+ * database in the same round trip instead of being looked up first.
+ */
+@Slf4j
+public class OrderRepositoryCustomImpl implements OrderRepositoryCustom {
+
+    private static final String POSTGRES_INSERT = """
+        INSERT INTO orders (id, group_id, name, article, normalized_article, created_at) VALUES (?, ?, ?, ?, ?, ?)
+        ON CONFLICT (group_id, name, normalized_article) DO NOTHING""";
+
+    // H2 has no ON CONFLICT, the standard MERGE does the same
+    private static final String MERGE_INSERT = """
+        MERGE INTO orders o
+        USING (VALUES (CAST(? AS BIGINT), ?, ?, ?, ?, CAST(? AS TIMESTAMP WITH TIME ZONE)))
+            AS s (id, group_id, name, article, normalized_article, created_at)
+        ON o.group_id = s.group_id AND o.name = s.name AND o.normalized_article = s.normalized_article
+        WHEN NOT MATCHED THEN INSERT (id, group_id, name, article, normalized_article, created_at)
+        VALUES (s.id, s.group_id, s.name, s.article, s.normalized_article, s.created_at)""";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean postgres;
+
+    public OrderRepositoryCustomImpl(JdbcTemplate jdbcTemplate, DataSource dataSource) throws MetaDataAccessException {
+        this.jdbcTemplate = jdbcTemplate;
+        String product = JdbcUtils.extractDatabaseMetaData(dataSource, DatabaseMetaData::getDatabaseProductName);
+        this.postgres = "PostgreSQL".equalsIgnoreCase(product);
+        log.debug("Order upserts for {}", product);
+    }
+
+    @Override
+    public long nextIdBlock() {
+        String sql = postgres ? "SELECT nextval('orders_seq')" : "SELECT NEXT VALUE FOR orders_seq";
+        Long value = jdbcTemplate.queryForObject(sql, Long.class);
+        if (value == null) {
+            throw new IllegalStateException("No value from orders_seq");
+        }
+        return value;
+    }
+
+    @Override
+    public void alignIdSequence(long maxId) {
+        long next = nextIdBlock();
+        if (next - Order.ID_BLOCK_SIZE >= maxId) {
+            return;
+        }
+        log.warn("orders_seq at {} is behind the highest order id {}, moving it forward", next, maxId);
+        if (postgres) {
+            // the next value is the one set plus the increment; other nodes may have moved it meanwhile
+            jdbcTemplate.queryForObject("SELECT setval('orders_seq', GREATEST(?, (SELECT last_value FROM orders_seq)))", Long.class, maxId);
+        } else {
+            jdbcTemplate.execute("ALTER SEQUENCE orders_seq RESTART WITH " + (maxId + Order.ID_BLOCK_SIZE));
+        }
+    }
+
+    @Override
+    public boolean[] insertIfAbsent(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return new boolean[0];
+        }
+        int[] counts = jdbcTemplate.batchUpdate(postgres ? POSTGRES_INSERT : MERGE_INSERT, orders, orders.size(), (ps, order) -> {
+            ps.setLong(1, order.getId());
+            ps.setString(2, order.getGroupId());
+            ps.setString(3, order.getName());
+            ps.setString(4, order.getArticle());
+            ps.setString(5, order.getNormalizedArticle());
+            ps.setObject(6, order.getCreatedAt() == null ? null : OffsetDateTime.ofInstant(order.getCreatedAt(), ZoneOffset.UTC));
+        })[0];
+        boolean[] inserted = new boolean[orders.size()];
+        for (int i = 0; i < counts.length; i++) {
+            // some drivers can't tell the count of a batched statement
+            inserted[i] = counts[i] > 0 || counts[i] == Statement.SUCCESS_NO_INFO;
+        }
+        return inserted;
+    }
+
+    @Override
+    public Long findIdByKey(String groupId, String name, String normalizedArticle) {
+        return jdbcTemplate.query("SELECT id FROM orders WHERE group_id = ? AND name = ? AND normalized_article = ?",
+            rs -> rs.next() ? rs.getLong(1) : null, groupId, name, normalizedArticle);
+    }
+}
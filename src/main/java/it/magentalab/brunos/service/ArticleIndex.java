@@ -0,0 +1,137 @@
+package it.magentalab.brunos.service;
+
+import it.magentalab.brunos.dto.ArticleSuggestion;
+import it.magentalab.brunos.model.Order;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Prefix index of the articles ever ordered, for autocomplete, ranked by how often each was ordered.
+ * <p>
+ * Articles are merged by their cleaned text and suggested with their most frequent spelling.
+ * Every word of an article is a prefix entry point, so "marg" finds "Pizza Margherita": the keys of
+ * a sorted map are the word suffixes of the articles, and the articles matching a prefix are a range of it.
+ * Updated on every change, it never touches the database.
+ */
+public class ArticleIndex {
+
+	// separates the suffix from the article in the keys, sorts before any character of the suffix
+	private static final char SEPARATOR = '\0';
+
+	private static final Comparator<ArticleSuggestion> BY_ORDERS_DESC = Comparator.comparingLong(ArticleSuggestion::orders).reversed()
+		.thenComparing(ArticleSuggestion::article);
+
+	private static final class Entry {
+		// guarded by this
+		private final Map<String, Long> spellings = new HashMap<>();
+		private long orders;
+		private String label;
+
+		synchronized void add(String spelling, long count) {
+			long total = spellings.merge(spelling, count, Long::sum);
+			orders += count;
+			if (label == null || total > spellings.getOrDefault(label, 0L)) {
+				label = spelling;
+			}
+		}
+
+		synchronized void remove(String spelling) {
+			if (spellings.computeIfPresent(spelling, (s, count) -> count > 1 ? count - 1 : null) == null && spelling.equals(label)) {
+				label = spellings.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey).orElse(null);
+			}
+			orders = Math.max(0, orders - 1);
+		}
+
+		synchronized ArticleSuggestion suggestion() {
+			return orders == 0 ? null : new ArticleSuggestion(label, orders);
+		}
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final NavigableMap<String, Entry> prefixes = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Counts orders of an article.
+	 */
+	public void add(String article, long count) {
+		String key = normalize(article);
+		if (key.isEmpty()) {
+			return;
+		}
+		entries.computeIfAbsent(key, this::newEntry).add(spelling(article), count);
+	}
+
+	public void add(String article) {
+		add(article, 1);
+	}
+
+	/**
+	 * Uncounts an order removed before being archived, e.g. a mistake.
+	 */
+	public void remove(String article) {
+		var entry = entries.get(normalize(article));
+		if (entry != null) {
+			entry.remove(spelling(article));
+		}
+	}
+
+	/**
+	 * @return The most ordered articles having a word starting with the query
+	 */
+	public List<ArticleSuggestion> suggest(String query, int limit) {
+		String prefix = normalize(query);
+		if (prefix.isEmpty()) {
+			return List.of();
+		}
+		// the same article is found once for each of its words matching the prefix
+		Set<Entry> matches = new LinkedHashSet<>(prefixes.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values());
+		List<ArticleSuggestion> suggestions = new ArrayList<>(matches.size());
+		for (Entry entry : matches) {
+			var suggestion = entry.suggestion();
+			if (suggestion != null) {
+				suggestions.add(suggestion);
+			}
+		}
+		suggestions.sort(BY_ORDERS_DESC);
+		return suggestions.size() > limit ? List.copyOf(suggestions.subList(0, limit)) : suggestions;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	private Entry newEntry(String article) {
+		var entry = new Entry();
+		int start = 0;
+		while (start < article.length()) {
+			prefixes.put(article.substring(start) + SEPARATOR + article, entry);
+			int space = article.indexOf(' ', start);
+			if (space < 0) {
+				break;
+			}
+			start = space + 1;
+		}
+		return entry;
+	}
+
+	/**
+	 * @return The cleaned article with single spaces between words
+	 */
+	static String normalize(String article) {
+		return article == null ? "" : StringUtils.normalizeSpace(Order.clean(article));
+	}
+
+	private static String spelling(String article) {
+		return StringUtils.normalizeSpace(article);
+	}
+}
@@ -0,0 +1,102 @@
+package it.magentalab.brunos.service;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Live article counts of the current orders, updated incrementally on every change.
+ * <p>
+ * Articles are kept sorted by count so the report is rendered from the distinct articles only,
+ * and the rendered text is cached until the next change.
+ */
+public class ArticleReport {
+
+	public record Report(long version, String text) {
+	}
+
+	private record ArticleCount(String article, int count) {
+	}
+
+	private static final Comparator<ArticleCount> BY_COUNT_DESC = Comparator.comparingInt(ArticleCount::count).reversed()
+		.thenComparing(ArticleCount::article, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+	private final Map<String, ArticleCount> counts = new HashMap<>();
+	private final NavigableSet<ArticleCount> sorted = new TreeSet<>(BY_COUNT_DESC);
+	private int guests;
+	private volatile long version;
+
+	private volatile Report cached = new Report(-1, null);
+
+	public synchronized void increment(String article) {
+		update(article, 1);
+	}
+
+	public synchronized void decrement(String article) {
+		update(article, -1);
+	}
+
+	public synchronized void clear() {
+		counts.clear();
+		sorted.clear();
+		guests = 0;
+		version++;
+	}
+
+	private void update(String article, int delta) {
+		var current = counts.get(article);
+		int count = (current == null ? 0 : current.count()) + delta;
+		if (current != null) {
+			sorted.remove(current);
+		}
+		if (count > 0) {
+			var updated = new ArticleCount(article, count);
+			counts.put(article, updated);
+			sorted.add(updated);
+		} else {
+			counts.remove(article);
+		}
+		guests += delta;
+		version++;
+	}
+
+	public Report getReport() {
+		var report = cached;
+		if (report.version() == version) {
+			return report;
+		}
+		synchronized (this) {
+			if (cached.version() != version) {
+				cached = new Report(version, render());
+			}
+			return cached;
+		}
+	}
+
+	private String render() {
+		StringBuilder report = new StringBuilder();
+
+		if (guests == 0) {
+			report.append("No orders found in the system.\n");
+		} else {
+			report.append("Ciao Bruno, oggi ");
+			if (guests == 1) {
+				report.append("ci sono solo io");
+			} else {
+				report.append("siamo in ").append(guests);
+			}
+			report.append(":\n");
+
+			sorted.forEach(entry -> report.append(entry.count())
+				.append(" x ")
+				.append(entry.article())
+				.append("\n"));
+
+			report.append("\nGrazie, a dopo!");
+		}
+
+		return report.toString();
+	}
+}
@@ -0,0 +1,222 @@
+package it.magentalab.brunos.service;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.RawValue;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Asynchronous fan-out of Socket.IO events.
+ * <p>
+ * Events are queued and handed to the client outboxes by a dedicated thread, so callers return as soon
+ * as the event is enqueued. Events arriving within {@code windowMs} are merged into a single {@value #BATCH_EVENT}
+ * frame per client, and every payload is JSON-encoded once and reused for all the recipients.
+ * <p>
+ * Events are addressed to a Socket.IO room, or to every client when the room is null: {@code roomClients}
+ * returns the clients of a room.
+ * <p>
+ * An event may also have a binary form, encoded on first use by this thread, sent instead of the
+ * JSON one to the clients using the binary encoding that know all the dictionary entries it refers to.
+ */
+@Slf4j
+public class BroadcastDispatcher {
+
+	public static final String BATCH_EVENT = "batch";
+
+	private static final int MAX_BATCH_SIZE = 100;
+
+	/**
+	 * @param enqueuedAt {@link System#nanoTime()} when the broadcast has been enqueued
+	 */
+	private record Broadcast(String room, String event, Object[] data, Supplier<OrderBinaryCodec.Encoded> binary,
+							 UUID excludedSessionId, long enqueuedAt) {
+	}
+
+	/**
+	 * A broadcast with its payload already encoded, both as event arguments and as a batch entry.
+	 *
+	 * @param binary the binary form, encoded once when first needed, null if the event has none
+	 */
+	private record Frame(Broadcast broadcast, Object[] encodedData, String encodedFrame, Supplier<OrderBinaryCodec.Encoded> binary) {
+	}
+
+	private final BlockingQueue<Broadcast> queue = new LinkedBlockingQueue<>();
+	private final ObjectMapper objectMapper;
+	private final Function<String, Collection<SocketIOClient>> roomClients;
+	private final SocketIoMetrics metrics;
+	private final Function<UUID, ClientOutbox> outboxes;
+	private final long windowMs;
+	private final Thread thread;
+
+	private volatile boolean running;
+
+	public BroadcastDispatcher(ObjectMapper objectMapper, Function<String, Collection<SocketIOClient>> roomClients, SocketIoMetrics metrics,
+							   Function<UUID, ClientOutbox> outboxes, long windowMs) {
+		this.objectMapper = objectMapper;
+		this.roomClients = roomClients;
+		this.metrics = metrics;
+		this.outboxes = outboxes;
+		this.windowMs = windowMs;
+		this.thread = Thread.ofPlatform()
+			.name("ws-broadcast")
+			.daemon()
+			.unstarted(this::run);
+	}
+
+	public void start() {
+		running = true;
+		thread.start();
+	}
+
+	public void stop() {
+		running = false;
+		thread.interrupt();
+	}
+
+	public void broadcast(String room, String event, Object... data) {
+		queue.add(new Broadcast(room, event, data, null, null, System.nanoTime()));
+	}
+
+	/**
+	 * @param binary encodes the binary form of the event, called by the dispatcher thread
+	 */
+	public void broadcastWithBinary(String room, String event, Supplier<OrderBinaryCodec.Encoded> binary, Object... data) {
+		queue.add(new Broadcast(room, event, data, binary, null, System.nanoTime()));
+	}
+
+	public void broadcastExcluding(String room, UUID excludedSessionId, String event, Object... data) {
+		queue.add(new Broadcast(room, event, data, null, excludedSessionId, System.nanoTime()));
+	}
+
+	private void run() {
+		List<Broadcast> batch = new ArrayList<>();
+		while (running) {
+			try {
+				batch.add(queue.take());
+				collectWindow(batch);
+				deliver(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Exception e) {
+				log.error("WS: errore nell'invio di {} eventi", batch.size(), e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void collectWindow(List<Broadcast> batch) throws InterruptedException {
+		if (windowMs <= 0) {
+			return;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs);
+		while (batch.size() < MAX_BATCH_SIZE) {
+			long remaining = deadline - System.nanoTime();
+			var next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+			if (next == null) {
+				return;
+			}
+			batch.add(next);
+		}
+	}
+
+	private void deliver(List<Broadcast> batch) throws JsonProcessingException {
+		Map<String, List<Frame>> framesByRoom = new LinkedHashMap<>();
+		for (Broadcast broadcast : batch) {
+			framesByRoom.computeIfAbsent(broadcast.room(), room -> new ArrayList<>()).add(encode(broadcast));
+		}
+
+		log.trace("WS: sending {} events", batch.size());
+		framesByRoom.forEach((room, frames) -> {
+			try {
+				deliver(roomClients.apply(room), frames);
+			} catch (Exception e) {
+				log.error("WS: errore nell'invio alla room {}", room, e);
+				frames.forEach(frame -> metrics.failed(frame.broadcast().event()));
+			}
+			frames.forEach(frame -> metrics.fanOut(frame.broadcast().event(), frame.broadcast().enqueuedAt()));
+		});
+	}
+
+	private void deliver(Collection<SocketIOClient> clients, List<Frame> frames) {
+		var allFrames = frames.size() > 1 ? batchPayload(frames) : null;
+		for (SocketIOClient client : clients) {
+			var outbox = outboxes.apply(client.getSessionId());
+			if (outbox == null) {
+				// still connecting, the initial sync brings it up to date
+				continue;
+			}
+			List<Frame> clientFrames = frames.stream()
+				.filter(frame -> !client.getSessionId().equals(frame.broadcast().excludedSessionId()))
+				.toList();
+			if (outbox.isBinary()) {
+				clientFrames.forEach(frame -> offer(outbox, frame));
+			} else if (clientFrames.size() == 1) {
+				var frame = clientFrames.get(0);
+				outbox.offer(frame.broadcast().event(), frame.encodedData());
+			} else if (clientFrames.size() > 1) {
+				var payload = clientFrames.size() == frames.size() ? allFrames : batchPayload(clientFrames);
+				outbox.offerBatch(BATCH_EVENT, clientFrames.stream().map(frame -> frame.broadcast().event()).toList(), payload);
+			}
+		}
+	}
+
+	/**
+	 * Offers a single frame to a client using the binary encoding, as JSON if it has no binary
+	 * form or the client does not know some of the dictionary entries it refers to.
+	 */
+	private static void offer(ClientOutbox outbox, Frame frame) {
+		var binary = frame.binary() == null ? null : frame.binary().get();
+		if (binary == null || !outbox.offerBinary(frame.broadcast().event(), binary)) {
+			outbox.offer(frame.broadcast().event(), frame.encodedData());
+		}
+	}
+
+	private Frame encode(Broadcast broadcast) throws JsonProcessingException {
+		Object[] encodedData = new Object[broadcast.data().length];
+		StringBuilder encodedFrame = new StringBuilder("[").append(objectMapper.writeValueAsString(broadcast.event()));
+		for (int i = 0; i < encodedData.length; i++) {
+			String json = objectMapper.writeValueAsString(broadcast.data()[i]);
+			encodedData[i] = new RawValue(json);
+			encodedFrame.append(',').append(json);
+		}
+		var binary = broadcast.binary() == null ? null : memoize(broadcast.binary());
+		return new Frame(broadcast, encodedData, encodedFrame.append(']').toString(), binary);
+	}
+
+	// used by the dispatcher thread only
+	private static <T> Supplier<T> memoize(Supplier<T> supplier) {
+		return new Supplier<>() {
+			private T value;
+
+			@Override
+			public T get() {
+				if (value == null) {
+					value = supplier.get();
+				}
+				return value;
+			}
+		};
+	}
+
+	private static RawValue batchPayload(List<Frame> frames) {
+		return new RawValue(frames.stream()
+			.map(Frame::encodedFrame)
+			.collect(Collectors.joining(",", "[", "]")));
+	}
+}
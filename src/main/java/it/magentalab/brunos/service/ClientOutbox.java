@@ -0,0 +1,372 @@
+package it.magentalab.brunos.service;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import io.netty.channel.ChannelFuture;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Bounded outbound queue of a Socket.IO client.
+ * <p>
+ * Frames are handed to Netty one at a time, the next one when the previous write has completed,
+ * so a client that does not keep up accumulates frames here, within {@code capacity}, instead of
+ * in the channel buffers. Polling clients get all the queued frames at once when the previous
+ * packets have been polled, so that they travel in the same poll response.
+ * <p>
+ * On overflow the queued order deltas are replaced by a single snapshot of the client group
+ * ({@link OverflowPolicy#RESYNC}), or the client is disconnected ({@link OverflowPolicy#DISCONNECT}).
+ * Clients that do not track sequence numbers cannot apply a snapshot and are always disconnected.
+ * <p>
+ * The initial sync is not bounded and does not count towards the lag: it is queued at once, and a
+ * polling client may take a while to fetch it.
+ */
+@Slf4j
+public class ClientOutbox {
+
+	public enum OverflowPolicy {
+		RESYNC,
+		DISCONNECT
+	}
+
+	public record Stats(UUID sessionId, String group, String transport, int depth, long lagMs) {
+	}
+
+	/**
+	 * @param events  the events in the frame, more than one for a batch
+	 * @param delta   true if the frame only carries order changes, superseded by a snapshot
+	 * @param bounded false for the initial sync, which does not count against the capacity
+	 * @param definitions dictionary entries defined by a binary frame, unknown to the client again if it is dropped
+	 */
+	private record Frame(String event, List<String> events, Supplier<Object[]> data, boolean delta, boolean bounded, long enqueuedAt,
+						 int[] definitions) {
+
+		Frame(String event, List<String> events, Supplier<Object[]> data, boolean delta, boolean bounded, long enqueuedAt) {
+			this(event, events, data, delta, bounded, enqueuedAt, NO_DEFINITIONS);
+		}
+	}
+
+	private static final int[] NO_DEFINITIONS = new int[0];
+
+	private final SocketIOClient client;
+	private final ClientTransport transport;
+	private final String group;
+	private final int capacity;
+	private final OverflowPolicy policy;
+	private final Predicate<String> isDelta;
+	private final String resyncEvent;
+	// payload of the snapshot that replaces the dropped deltas, null if the client cannot apply it
+	private final Supplier<Object[]> resync;
+	private final Executor executor;
+	private final SocketIoMetrics metrics;
+	// the client asked for the binary encoding of the order events
+	private final boolean binary;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// guarded by lock
+	private final Deque<Frame> queue = new ArrayDeque<>();
+	private int unbounded;
+	private boolean sending;
+	private ChannelFuture inFlight;
+	private long inFlightSince;
+	// the frame in flight counts towards the lag
+	private boolean inFlightBounded;
+	private boolean closed;
+	// dictionary entries the client knows
+	private final BitSet knownArticles = new BitSet();
+
+	public ClientOutbox(SocketIOClient client, ClientTransport transport, String group, int capacity, OverflowPolicy policy,
+						Predicate<String> isDelta, String resyncEvent, Supplier<Object[]> resync, Executor executor, SocketIoMetrics metrics,
+						boolean binary) {
+		this.client = client;
+		this.transport = transport;
+		this.group = group;
+		this.capacity = capacity;
+		this.policy = resync == null ? OverflowPolicy.DISCONNECT : policy;
+		this.isDelta = isDelta;
+		this.resyncEvent = resyncEvent;
+		this.resync = resync;
+		this.executor = executor;
+		this.metrics = metrics;
+		this.binary = binary;
+	}
+
+	public SocketIOClient getClient() {
+		return client;
+	}
+
+	public String getGroup() {
+		return group;
+	}
+
+	public boolean isBinary() {
+		return binary;
+	}
+
+	/**
+	 * Records that the client has been sent the first {@code size} entries of the dictionary.
+	 */
+	public void knowArticles(int size) {
+		lock.lock();
+		try {
+			knownArticles.set(0, size);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues a binary frame if the client can decode it, recording the dictionary entries it defines.
+	 *
+	 * @return false if the frame refers to dictionary entries the client has not been sent, nothing is queued
+	 */
+	public boolean offerBinary(String event, OrderBinaryCodec.Encoded encoded) {
+		boolean fits;
+		lock.lock();
+		try {
+			for (int index : encoded.references()) {
+				if (!knownArticles.get(index)) {
+					return false;
+				}
+			}
+			for (int index : encoded.definitions()) {
+				knownArticles.set(index);
+			}
+			// under the same lock, so that a resync dropping the frame also forgets its definitions
+			Object[] data = {encoded.bytes()};
+			fits = enqueue(new Frame(event, List.of(event), () -> data, isDelta.test(event), true, System.nanoTime(), encoded.definitions()));
+		} finally {
+			lock.unlock();
+		}
+		if (fits) {
+			drain();
+		} else {
+			evict("coda piena");
+		}
+		return true;
+	}
+
+	/**
+	 * Queues a frame, applying the overflow policy if the queue is full.
+	 */
+	public void offer(String event, Object... data) {
+		offer(event, List.of(event), data);
+	}
+
+	/**
+	 * Queues a batch frame, applying the overflow policy if the queue is full.
+	 *
+	 * @param events the events in the batch
+	 */
+	public void offerBatch(String event, List<String> events, Object payload) {
+		offer(event, events, payload);
+	}
+
+	private void offer(String event, List<String> events, Object... data) {
+		if (enqueue(new Frame(event, events, () -> data, events.stream().allMatch(isDelta), true, System.nanoTime()))) {
+			drain();
+		} else {
+			evict("coda piena");
+		}
+	}
+
+	/**
+	 * Queues the initial sync of a newly connected client, regardless of the capacity.
+	 */
+	public void offerUnbounded(String event, Object... data) {
+		enqueue(new Frame(event, List.of(event), () -> data, isDelta.test(event), false, System.nanoTime()));
+		drain();
+	}
+
+	/**
+	 * Queues a batch frame of the initial sync, regardless of the capacity.
+	 *
+	 * @param events the events in the batch
+	 */
+	public void offerBatchUnbounded(String event, List<String> events, Object payload) {
+		enqueue(new Frame(event, events, () -> new Object[]{payload}, events.stream().allMatch(isDelta), false, System.nanoTime()));
+		drain();
+	}
+
+	/**
+	 * @return false if the frame does not fit and the client must be evicted
+	 */
+	private boolean enqueue(Frame frame) {
+		lock.lock();
+		try {
+			if (closed) {
+				return true;
+			}
+			if (!frame.bounded()) {
+				unbounded++;
+				queue.addLast(frame);
+				return true;
+			}
+			if (queue.size() - unbounded < capacity) {
+				queue.addLast(frame);
+				return true;
+			}
+			if (policy == OverflowPolicy.DISCONNECT) {
+				return false;
+			}
+			// the snapshot supersedes the queued deltas and the new frame, if it is a delta too
+			queue.stream().filter(Frame::delta).forEach(this::forgetDefinitions);
+			if (frame.delta()) {
+				forgetDefinitions(frame);
+			}
+			queue.removeIf(Frame::delta);
+			unbounded = (int) queue.stream().filter(queued -> !queued.bounded()).count();
+			int needed = frame.delta() ? 1 : 2;
+			if (queue.size() - unbounded + needed > capacity) {
+				return false;
+			}
+			queue.addLast(new Frame(resyncEvent, List.of(resyncEvent), resync, true, true, System.nanoTime()));
+			if (!frame.delta()) {
+				queue.addLast(frame);
+			}
+			metrics.resync();
+			log.debug("WS: client {} lento, ordini sostituiti da uno snapshot", client.getSessionId());
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// called with the lock held: later binary frames referring to these entries are sent as JSON
+	private void forgetDefinitions(Frame frame) {
+		for (int index : frame.definitions()) {
+			knownArticles.clear(index);
+		}
+	}
+
+	/**
+	 * Sends the queued frames as long as the client keeps up.
+	 */
+	public void drain() {
+		// the previous frame has been queued for the next poll: the rest of the queue goes with it
+		boolean polled = false;
+		while (true) {
+			Frame frame;
+			lock.lock();
+			try {
+				if (closed || sending || queue.isEmpty() || !(polled || writable())) {
+					return;
+				}
+				frame = queue.pollFirst();
+				if (!frame.bounded()) {
+					unbounded--;
+				}
+				sending = true;
+			} finally {
+				lock.unlock();
+			}
+
+			ChannelFuture future = send(frame);
+			lock.lock();
+			try {
+				sending = false;
+				inFlight = future;
+				inFlightSince = System.nanoTime();
+				inFlightBounded = frame.bounded();
+			} finally {
+				lock.unlock();
+			}
+			if (future != null && !future.isDone()) {
+				// completes on the event loop, which must not run snapshots
+				future.addListener(f -> executor.execute(this::drain));
+				return;
+			}
+			polled = future == null;
+		}
+	}
+
+	// called with the lock held
+	private boolean writable() {
+		if (inFlight != null && !inFlight.isDone()) {
+			return false;
+		}
+		// polling clients get the packets on their next request
+		return !transport.hasQueuedPackets(client);
+	}
+
+	private ChannelFuture send(Frame frame) {
+		try {
+			var future = transport.send(client, frame.event(), Arrays.asList(frame.data().get()));
+			frame.events().forEach(event -> metrics.sent(event, 1));
+			return future;
+		} catch (Exception e) {
+			log.error("WS: errore nella comunicazione session id={}", client.getSessionId());
+			frame.events().forEach(metrics::failed);
+			return null;
+		}
+	}
+
+	/**
+	 * Disconnects the client, dropping the queued frames.
+	 */
+	public void evict(String reason) {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			queue.clear();
+			unbounded = 0;
+		} finally {
+			lock.unlock();
+		}
+		log.warn("WS: client {} disconnesso ({})", client.getSessionId(), reason);
+		metrics.evicted();
+		client.disconnect();
+	}
+
+	public int depth() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return How long the oldest frame not yet delivered has been waiting, the initial sync excluded
+	 */
+	public long lagMillis() {
+		lock.lock();
+		try {
+			long now = System.nanoTime();
+			long oldest = now;
+			if (inFlight != null && !inFlight.isDone() && inFlightBounded) {
+				oldest = inFlightSince;
+			}
+			// frames are queued in order, the first bounded one is the oldest
+			for (Frame frame : queue) {
+				if (frame.bounded()) {
+					if (frame.enqueuedAt() - oldest < 0) {
+						oldest = frame.enqueuedAt();
+					}
+					break;
+				}
+			}
+			return TimeUnit.NANOSECONDS.toMillis(now - oldest);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Stats stats() {
+		return new Stats(client.getSessionId(), group, String.valueOf(client.getTransport()), depth(), lagMillis());
+	}
+}
@@ -0,0 +1,46 @@
+package it.magentalab.brunos.service;
+
+import com.corundumstudio.socketio.SocketIOClient;
+import com.corundumstudio.socketio.handler.ClientHead;
+import com.corundumstudio.socketio.protocol.Packet;
+import com.corundumstudio.socketio.protocol.PacketType;
+import com.corundumstudio.socketio.transport.NamespaceClient;
+import io.netty.channel.ChannelFuture;
+
+import java.util.List;
+
+/**
+ * Writes event packets to a Socket.IO client and tells whether its previous packets are still waiting.
+ * <p>
+ * {@link SocketIOClient#sendEvent} neither returns the write future nor exposes the polling queue, so
+ * this goes through netty-socketio internals ({@code NamespaceClient}, {@code ClientHead}, {@code Packet}).
+ * They are not part of its API: this is the only class using them, written against netty-socketio 2.0.9
+ * as pinned in pom.xml, to be checked on every upgrade.
+ */
+public class ClientTransport {
+
+	/**
+	 * Sends an event packet.
+	 *
+	 * @return The write future, null if the packet is queued until the next poll of a polling client
+	 */
+	public ChannelFuture send(SocketIOClient client, String event, List<Object> data) {
+		ClientHead head = headOf(client);
+		Packet packet = new Packet(PacketType.MESSAGE, head.getEngineIOVersion());
+		packet.setSubType(PacketType.EVENT);
+		packet.setName(event);
+		packet.setData(data);
+		return head.send(packet.withNsp(client.getNamespace().getName(), head.getEngineIOVersion()));
+	}
+
+	/**
+	 * @return true if packets sent before have not been taken yet, e.g. by a polling client that has not polled
+	 */
+	public boolean hasQueuedPackets(SocketIOClient client) {
+		return !headOf(client).getPacketsQueue(client.getTransport()).isEmpty();
+	}
+
+	private static ClientHead headOf(SocketIOClient client) {
+		return ((NamespaceClient) client).getBaseClient();
+	}
+}
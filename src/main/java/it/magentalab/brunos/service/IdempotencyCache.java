@@ -0,0 +1,187 @@
+package it.magentalab.brunos.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Responses of the requests sent with an {@code Idempotency-Key} header, so that a client retrying
+ * after a timeout gets the first response instead of executing the request again.
+ * <p>
+ * A retry arriving while the first execution is still running waits for it. A key reused with a different
+ * request is answered with 422. Failed executions are not kept: the waiting retries get the same error
+ * and the next one executes again. Responses expire {@code ttl-seconds} after completion; beyond
+ * {@code max-entries} the expired ones go first, then arbitrary completed ones.
+ */
+@Component
+@Slf4j
+public class IdempotencyCache {
+
+	public static final String HEADER = "Idempotency-Key";
+	public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+	private static final int MAX_KEY_LENGTH = 255;
+
+	private static final class Entry {
+		private final Object fingerprint;
+		private final CompletableFuture<ResponseEntity<?>> response = new CompletableFuture<>();
+		// nanoTime of the completion, 0 while running
+		private volatile long completedAt;
+
+		private Entry(Object fingerprint) {
+			this.fingerprint = fingerprint;
+		}
+
+		private boolean expired(long now, long ttlNanos) {
+			long completed = completedAt;
+			return completed != 0 && now - completed > ttlNanos;
+		}
+	}
+
+	private final long ttlNanos;
+	private final int maxEntries;
+	private final Counter misses;
+	private final Counter hits;
+	private final Counter coalesced;
+	private final Counter mismatches;
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	public IdempotencyCache(MeterRegistry registry,
+							@Value("${idempotency.ttl-seconds:600}") long ttlSeconds,
+							@Value("${idempotency.max-entries:10000}") int maxEntries) {
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+		this.maxEntries = maxEntries;
+		this.misses = counter(registry, "miss");
+		this.hits = counter(registry, "hit");
+		this.coalesced = counter(registry, "coalesced");
+		this.mismatches = counter(registry, "mismatch");
+		registry.gaugeMapSize("brunos.idempotency.entries", Tags.empty(), entries);
+	}
+
+	private static Counter counter(MeterRegistry registry, String result) {
+		return Counter.builder("brunos.idempotency.requests")
+			.description("Requests with an idempotency key, by outcome")
+			.tag("result", result)
+			.register(registry);
+	}
+
+	/**
+	 * Executes the request once per key, answering the retries with the response of the first execution.
+	 *
+	 * @param operation   the operation, keys are scoped by it
+	 * @param key         the idempotency key sent by the client, null to just execute the request
+	 * @param fingerprint the request content, a retry must send the same
+	 * @param request     executes the request
+	 * @return The response, marked with {@value #REPLAYED_HEADER} if it comes from a previous execution
+	 */
+	public ResponseEntity<?> execute(String operation, String key, Object fingerprint, Supplier<ResponseEntity<?>> request) {
+		if (key == null || key.isBlank()) {
+			return request.get();
+		}
+		if (key.length() > MAX_KEY_LENGTH) {
+			return ResponseEntity.badRequest().build();
+		}
+		String scopedKey = operation + ':' + key;
+		while (true) {
+			long now = System.nanoTime();
+			Entry entry = entries.get(scopedKey);
+			if (entry == null || entry.expired(now, ttlNanos)) {
+				Entry created = new Entry(fingerprint);
+				boolean owner = entry == null
+					? entries.putIfAbsent(scopedKey, created) == null
+					: entries.replace(scopedKey, entry, created);
+				if (!owner) {
+					continue;
+				}
+				misses.increment();
+				if (entries.size() > maxEntries) {
+					sweep(now);
+				}
+				return run(scopedKey, created, request);
+			}
+			if (!Objects.equals(entry.fingerprint, fingerprint)) {
+				mismatches.increment();
+				log.warn("Idempotency key {} reused with a different request", scopedKey);
+				return ResponseEntity.unprocessableEntity().build();
+			}
+			if (entry.response.isDone()) {
+				hits.increment();
+			} else {
+				coalesced.increment();
+				log.debug("Idempotency key {} in progress, waiting for the first execution", scopedKey);
+			}
+			return replayed(await(entry));
+		}
+	}
+
+	private ResponseEntity<?> run(String scopedKey, Entry entry, Supplier<ResponseEntity<?>> request) {
+		ResponseEntity<?> response;
+		try {
+			response = request.get();
+		} catch (Throwable e) {
+			entries.remove(scopedKey, entry);
+			entry.response.completeExceptionally(e);
+			throw e;
+		}
+		entry.completedAt = System.nanoTime();
+		entry.response.complete(response);
+		return response;
+	}
+
+	private static ResponseEntity<?> await(Entry entry) {
+		try {
+			return entry.response.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException cause) {
+				throw cause;
+			}
+			if (e.getCause() instanceof Error cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	private static ResponseEntity<?> replayed(ResponseEntity<?> response) {
+		return ResponseEntity.status(response.getStatusCode())
+			.headers(response.getHeaders())
+			.header(REPLAYED_HEADER, "true")
+			.body(response.getBody());
+	}
+
+	/**
+	 * Evicts the expired responses, then arbitrary completed ones if there are still too many.
+	 * Requests still running are never evicted. Only one thread sweeps at a time.
+	 */
+	private void sweep(long now) {
+		if (!sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			entries.values().removeIf(entry -> entry.expired(now, ttlNanos));
+			var iterator = entries.values().iterator();
+			while (entries.size() > maxEntries && iterator.hasNext()) {
+				if (iterator.next().completedAt != 0) {
+					iterator.remove();
+				}
+			}
+		} finally {
+			sweeping.set(false);
+		}
+	}
+}
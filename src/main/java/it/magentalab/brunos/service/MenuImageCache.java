@@ -0,0 +1,87 @@
+package it.magentalab.brunos.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metadata of the served menu images, computed once per file and kept until the file is replaced.
+ */
+@Component
+@Slf4j
+public class MenuImageCache {
+
+	/**
+	 * @param etag         strong ETag, from the SHA-256 of the content
+	 * @param lastModified last modification time in milliseconds
+	 */
+	public record ImageInfo(Path path, MediaType contentType, long size, String etag, long lastModified) {
+	}
+
+	private final Map<Path, ImageInfo> images = new ConcurrentHashMap<>();
+
+	/**
+	 * @return The image metadata, empty if the file does not exist
+	 */
+	public Optional<ImageInfo> get(Path path) {
+		var info = images.get(path);
+		if (info != null) {
+			return Optional.of(info);
+		}
+		if (!Files.exists(path)) {
+			return Optional.empty();
+		}
+		try {
+			return Optional.of(images.computeIfAbsent(path, this::load));
+		} catch (UncheckedIOException e) {
+			log.warn("Cannot read image {}: {}", path, e.getMessage());
+			return Optional.empty();
+		}
+	}
+
+	public void invalidate(Path path) {
+		images.remove(path);
+	}
+
+	private ImageInfo load(Path path) {
+		try {
+			String contentType = Files.probeContentType(path);
+			MediaType mediaType = contentType == null ? MediaType.APPLICATION_OCTET_STREAM : MediaType.parseMediaType(contentType);
+			long lastModified = Files.getLastModifiedTime(path).toMillis();
+			var info = new ImageInfo(path, mediaType, Files.size(path), "\"" + hash(path) + "\"", lastModified);
+			log.debug("Loaded image info: {}", info);
+			return info;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String hash(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			while (channel.read(buffer) != -1) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			return HexFormat.of().formatHex(digest.digest(), 0, 16);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
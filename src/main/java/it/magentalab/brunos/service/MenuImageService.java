@@ -0,0 +1,314 @@
+package it.magentalab.brunos.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Menu image upload pipeline: the uploaded image is resized to several widths plus a tiny
+ * placeholder, re-encoded as JPEG with the JDK ImageIO only, and published once all renditions are ready.
+ * <p>
+ * Every file is written to a temporary file, then moved into place one at a time with an atomic
+ * rename, the original image last: readers never see a partial file, but may briefly get a new
+ * rendition while the previous menu is still published. Images larger than
+ * {@code menu.image.max-pixels} are rejected before being decoded.
+ */
+@Service
+@Slf4j
+public class MenuImageService {
+
+	public static final String MENU_IMAGE = "menu.jpg";
+	private static final String PLACEHOLDER_IMAGE = "menu-placeholder.jpg";
+
+	private final SocketIoService socketIoService;
+	private final MenuImageCache menuImageCache;
+	private final MeterRegistry meterRegistry;
+
+	@Value("${menu.upload-dir}")
+	private String uploadDir;
+
+	@Value("${menu.image.widths:480,960,1920}")
+	private List<Integer> widths;
+
+	@Value("${menu.image.quality:0.82}")
+	private float quality;
+
+	@Value("${menu.image.placeholder-width:32}")
+	private int placeholderWidth;
+
+	@Value("${menu.image.max-pixels:40000000}")
+	private long maxPixels;
+
+	// only the latest upload gets published
+	private final AtomicLong generation = new AtomicLong();
+	// a lock rather than synchronized, which would pin the virtual thread during the file moves
+	private final ReentrantLock publishLock = new ReentrantLock();
+
+	@Autowired
+	public MenuImageService(SocketIoService socketIoService, MenuImageCache menuImageCache, MeterRegistry meterRegistry) {
+		this.socketIoService = socketIoService;
+		this.menuImageCache = menuImageCache;
+		this.meterRegistry = meterRegistry;
+	}
+
+	public Path getUploadPath() {
+		return Paths.get(uploadDir);
+	}
+
+	public Path getImagePath() {
+		return getUploadPath().resolve(MENU_IMAGE);
+	}
+
+	public Path getPlaceholderPath() {
+		return getUploadPath().resolve(PLACEHOLDER_IMAGE);
+	}
+
+	/**
+	 * @return The smallest available rendition at least {@code width} pixels wide, or the original image
+	 */
+	public Path getImagePath(Integer width) {
+		if (width != null) {
+			Optional<Path> rendition = widths.stream()
+				.sorted()
+				.filter(w -> w >= width)
+				.map(this::getRenditionPath)
+				.filter(Files::exists)
+				.findFirst();
+			if (rendition.isPresent()) {
+				return rendition.get();
+			}
+		}
+		return getImagePath();
+	}
+
+	private Path getRenditionPath(int width) {
+		return getUploadPath().resolve("menu-" + width + ".jpg");
+	}
+
+	/**
+	 * Starts a new upload.
+	 *
+	 * @return The generation of the upload, to be passed to {@link #process}
+	 */
+	public long nextGeneration() {
+		return generation.incrementAndGet();
+	}
+
+	/**
+	 * Generates the renditions of an uploaded image, then replaces the current menu and notifies the clients.
+	 *
+	 * @param upload     the uploaded file, moved or deleted when done
+	 * @param generation the upload generation, stale uploads are discarded
+	 */
+	@Async
+	public void process(Path upload, long generation) {
+		log.info("Processing menu image {} (generation {})", upload, generation);
+		// target -> staged temporary file, null to delete the target
+		Map<Path, Path> staged = new LinkedHashMap<>();
+		try {
+			if (!withinPixelLimit(upload)) {
+				return;
+			}
+			BufferedImage source = decode(upload);
+			if (source != null) {
+				try {
+					for (int width : widths) {
+						if (isStale(generation)) {
+							return;
+						}
+						// no upscaling: smaller images are served by the original
+						staged.put(getRenditionPath(width), width < source.getWidth() ? writeJpeg(resize(source, width), quality) : null);
+					}
+					staged.put(getPlaceholderPath(), writeJpeg(resize(source, Math.min(placeholderWidth, source.getWidth())), 0.3f));
+				} catch (IOException e) {
+					log.warn("Cannot write the menu image renditions, publishing the upload as is: {}", e.getMessage());
+					failure("renditions");
+					staged.values().forEach(MenuImageService::deleteQuietly);
+					staged.clear();
+					source = null;
+				}
+			}
+			if (source == null) {
+				// the renditions of the previous menu must not be served for this one
+				widths.forEach(width -> staged.put(getRenditionPath(width), null));
+				staged.put(getPlaceholderPath(), null);
+			}
+			staged.put(getImagePath(), upload);
+
+			publishLock.lock();
+			try {
+				if (isStale(generation)) {
+					return;
+				}
+				for (var entry : staged.entrySet()) {
+					if (entry.getValue() == null) {
+						Files.deleteIfExists(entry.getKey());
+					} else {
+						Files.move(entry.getValue(), entry.getKey(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+					}
+					menuImageCache.invalidate(entry.getKey());
+				}
+			} finally {
+				publishLock.unlock();
+			}
+			log.info("Menu image renditions ready (generation {})", generation);
+			socketIoService.menuUpdated();
+		} catch (IOException e) {
+			log.error("Errore elaborazione immagine menu: {}", e.getMessage());
+			failure("publish");
+		} finally {
+			// leftovers of failed or superseded uploads
+			staged.values().forEach(MenuImageService::deleteQuietly);
+			deleteQuietly(upload);
+		}
+	}
+
+	/**
+	 * Reads the image dimensions from its header, so that a small file declaring a huge image is
+	 * not decoded into memory.
+	 *
+	 * @return false if the image is larger than {@code menu.image.max-pixels}, it must not be published
+	 */
+	private boolean withinPixelLimit(Path upload) {
+		try (ImageInputStream in = ImageIO.createImageInputStream(upload.toFile())) {
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext()) {
+				// not an image ImageIO can decode: published as is
+				return true;
+			}
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+				if (pixels > maxPixels) {
+					log.warn("Menu image of {}x{} pixels rejected, the limit is {} pixels", reader.getWidth(0), reader.getHeight(0), maxPixels);
+					failure("too-large");
+					return false;
+				}
+				return true;
+			} finally {
+				reader.dispose();
+			}
+		} catch (IOException e) {
+			// decode reports it
+			return true;
+		}
+	}
+
+	/**
+	 * @return The decoded image, null if ImageIO cannot decode it (e.g. an unsupported format or a CMYK JPEG)
+	 */
+	private BufferedImage decode(Path upload) {
+		try {
+			BufferedImage source = ImageIO.read(upload.toFile());
+			if (source == null) {
+				log.warn("Unsupported image format, publishing the upload as is");
+				failure("unsupported");
+			}
+			return source;
+		} catch (IOException e) {
+			log.warn("Cannot decode the menu image, publishing the upload as is: {}", e.getMessage());
+			failure("decode");
+			return null;
+		}
+	}
+
+	private void failure(String stage) {
+		Counter.builder("brunos.menu.image.failures")
+			.description("Menu image uploads whose processing failed, by stage")
+			.tag("stage", stage)
+			.register(meterRegistry)
+			.increment();
+	}
+
+	private static void deleteQuietly(Path path) {
+		if (path == null) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			log.warn("Cannot delete {}: {}", path, e.getMessage());
+		}
+	}
+
+	private boolean isStale(long generation) {
+		if (generation != this.generation.get()) {
+			log.info("Menu image generation {} superseded by a newer upload", generation);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Downscales by halving steps, which keeps bilinear interpolation sharp on large ratios.
+	 */
+	private static BufferedImage resize(BufferedImage source, int width) {
+		BufferedImage current = source;
+		int currentWidth = source.getWidth();
+		do {
+			currentWidth = Math.max(currentWidth / 2, width);
+			int height = Math.max(1, Math.round(source.getHeight() * (float) currentWidth / source.getWidth()));
+			BufferedImage step = new BufferedImage(currentWidth, height, BufferedImage.TYPE_INT_RGB);
+			Graphics2D graphics = step.createGraphics();
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				// JPEG has no alpha channel
+				graphics.setColor(Color.WHITE);
+				graphics.fillRect(0, 0, currentWidth, height);
+				graphics.drawImage(current, 0, 0, currentWidth, height, null);
+			} finally {
+				graphics.dispose();
+			}
+			current = step;
+		} while (currentWidth > width);
+		return current;
+	}
+
+	/**
+	 * @return A temporary file in the upload directory, to be renamed to the rendition name
+	 */
+	private Path writeJpeg(BufferedImage image, float quality) throws IOException {
+		Path temp = Files.createTempFile(getUploadPath(), "rendition-", ".tmp");
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.setOutput(out);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return temp;
+	}
+}
@@ -0,0 +1,167 @@
+package it.magentalab.brunos.service;
+
+import it.magentalab.brunos.model.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+
+/**
+ * Compact binary encoding of order changes, for the Socket.IO clients that ask for it with the
+ * handshake parameter {@code enc=bin}. The frame is sent as the binary argument of the usual event.
+ * <p>
+ * Articles are replaced by their index in a dictionary shared by the clients of a group: the group
+ * dictionary is sent on connect, and a new article is defined inline by the first frame that uses it.
+ * Each group has its own, so a client only gets the articles of its group. A frame is
+ * (numbers are unsigned LEB128 varints, strings are a varint byte length followed by UTF-8):
+ * <pre>
+ * byte    type: 1 save, 2 delete
+ * varint  seq
+ * varint  count
+ * count x {
+ *   varint  id
+ *   varint  article: 0 = text follows, not in the dictionary;
+ *                    (index + 1) &lt;&lt; 1 = dictionary entry;
+ *                    (index + 1) &lt;&lt; 1 | 1 = new dictionary entry, text follows
+ *   [string article]
+ *   string  name
+ * }
+ * </pre>
+ */
+@Component
+public class OrderBinaryCodec {
+
+	public static final byte SAVE = 1;
+	public static final byte DELETE = 2;
+
+	private static final int MAX_ARTICLES = 65536;
+
+	/**
+	 * @param references  dictionary entries the frame uses without defining them
+	 * @param definitions dictionary entries the frame defines
+	 */
+	public record Encoded(byte[] bytes, int[] references, int[] definitions) {
+	}
+
+	private static final class Dictionary {
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private final List<String> articles = new ArrayList<>();
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// guarded by lock, by group
+	private final Map<String, Dictionary> dictionaries = new HashMap<>();
+
+	/**
+	 * Encodes a frame for a broadcast to the group, adding the new articles to its dictionary.
+	 */
+	public Encoded encode(String group, byte type, long seq, List<Order> orders) {
+		var out = header(type, seq, orders.size());
+		List<Integer> references = new ArrayList<>();
+		List<Integer> definitions = new ArrayList<>();
+		for (Order order : orders) {
+			writeVarint(out, order.getId() == null ? 0 : order.getId());
+			var entry = indexOf(group, order.getArticle());
+			if (entry == null) {
+				writeVarint(out, 0);
+				writeString(out, order.getArticle());
+			} else if (entry.added()) {
+				writeVarint(out, ((long) entry.index() + 1) << 1 | 1);
+				writeString(out, order.getArticle());
+				definitions.add(entry.index());
+			} else {
+				writeVarint(out, ((long) entry.index() + 1) << 1);
+				if (!definitions.contains(entry.index())) {
+					references.add(entry.index());
+				}
+			}
+			writeString(out, order.getName());
+		}
+		return new Encoded(out.toByteArray(), toArray(references), toArray(definitions));
+	}
+
+	/**
+	 * Encodes a frame with every article in the text, for a single client that may not know the
+	 * latest dictionary entries, such as a client being brought up to date on connect.
+	 */
+	public byte[] encodeSelfContained(byte type, long seq, List<Order> orders) {
+		var out = header(type, seq, orders.size());
+		for (Order order : orders) {
+			writeVarint(out, order.getId() == null ? 0 : order.getId());
+			writeVarint(out, 0);
+			writeString(out, order.getArticle());
+			writeString(out, order.getName());
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return The dictionary of the group, the article of each index
+	 */
+	public List<String> dictionary(String group) {
+		lock.lock();
+		try {
+			var dictionary = dictionaries.get(group);
+			return dictionary == null ? List.of() : List.copyOf(dictionary.articles);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private record Entry(int index, boolean added) {
+	}
+
+	/**
+	 * @return The entry of the article in the group dictionary, null if the dictionary is full
+	 */
+	private Entry indexOf(String group, String article) {
+		lock.lock();
+		try {
+			var dictionary = dictionaries.computeIfAbsent(group, g -> new Dictionary());
+			var index = dictionary.indexes.get(article);
+			if (index != null) {
+				return new Entry(index, false);
+			}
+			if (dictionary.articles.size() >= MAX_ARTICLES) {
+				return null;
+			}
+			dictionary.articles.add(article);
+			dictionary.indexes.put(article, dictionary.articles.size() - 1);
+			return new Entry(dictionary.articles.size() - 1, true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private static ByteArrayOutputStream header(byte type, long seq, int count) {
+		var out = new ByteArrayOutputStream(16 + count * 24);
+		out.write(type);
+		writeVarint(out, seq);
+		writeVarint(out, count);
+		return out;
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length);
+		out.writeBytes(bytes);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static int[] toArray(List<Integer> values) {
+		return IntStream.range(0, values.size()).map(values::get).toArray();
+	}
+}
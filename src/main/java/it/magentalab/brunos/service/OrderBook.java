@@ -0,0 +1,587 @@
+package it.magentalab.brunos.service;
+
+import it.magentalab.brunos.dto.ArticleSuggestion;
+import it.magentalab.brunos.dto.OrderSnapshot;
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.store.OrderStore;
+import it.magentalab.brunos.store.OrderStore.Write;
+import it.magentalab.brunos.store.OrderStore.WriteType;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * Authoritative in-memory view of the current orders, keyed by (group, name, cleaned article).
+ * <p>
+ * All reads and duplicate checks are served from memory. Writes are either persisted
+ * immediately (write-through) or queued and flushed to the {@link OrderStore} in batches
+ * (write-behind), depending on {@code orders.durability}. Resets are always persisted immediately:
+ * the orders of the group are moved to the archive, after the pending writes.
+ * <p>
+ * Every change gets a sequence number and is kept in a bounded change log, so reconnecting
+ * clients can be sent only what they missed.
+ */
+@Component
+@Slf4j
+public class OrderBook {
+
+	// writes the store rejected for good, e.g. violating a constraint
+	private static final Logger deadLetters = LoggerFactory.getLogger("it.magentalab.brunos.orders.dead-letter");
+
+	public enum DurabilityMode {
+		WRITE_BEHIND,
+		WRITE_THROUGH
+	}
+
+	private record OrderKey(String group, String name, String article) {
+		static OrderKey of(String group, String name, String article) {
+			return new OrderKey(group, name, Order.clean(article));
+		}
+
+		static OrderKey of(Order order) {
+			return new OrderKey(order.getGroupId(), order.getName(), order.getCleanedArticle());
+		}
+	}
+
+	public record Cleared(int count, OrderChange change) {
+	}
+
+	/**
+	 * @param version the sequence number of the last change to the group
+	 */
+	public record Versioned(long version, List<Order> orders) {
+	}
+
+	private final Map<OrderKey, Order> orders = new ConcurrentHashMap<>();
+	// orders of each group sorted by id, for snapshots and keyset pages
+	private final Map<String, NavigableMap<Long, Order>> ordersById = new ConcurrentHashMap<>();
+	private final Map<String, Long> versions = new ConcurrentHashMap<>();
+	private final Map<String, ArticleReport> reports = new ConcurrentHashMap<>();
+	// articles of the current and archived orders of every group
+	private final ArticleIndex articleIndex = new ArticleIndex();
+
+	// identifies this run, sequence numbers restart on every boot
+	private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+	// a lock rather than synchronized: write-through persists while holding it, which would pin virtual threads
+	private final ReentrantLock lock = new ReentrantLock();
+	// held while writes are persisted, so a reset can't be overtaken by a flush in progress; taken before lock
+	private final ReentrantLock persistLock = new ReentrantLock();
+
+	// guarded by lock
+	private long sequence;
+	private final Deque<OrderChange> changeLog = new ArrayDeque<>();
+
+	// guarded by lock
+	private final Deque<Write> pendingWrites = new ArrayDeque<>();
+
+	// ids are assigned when an order is added, from blocks of orders_seq: guarded by lock
+	private long nextId = 1;
+	private long maxId = 0;
+
+	private final OrderStore orderStore;
+
+	@Value("${orders.durability:write-behind}")
+	private DurabilityMode durabilityMode;
+
+	@Value("${orders.change-log-size:1000}")
+	private int changeLogSize;
+
+	@Autowired
+	public OrderBook(OrderStore orderStore) {
+		this.orderStore = orderStore;
+	}
+
+	/**
+	 * @return The identifier of this run, sequence numbers of different runs are unrelated
+	 */
+	public String getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * @return The sequence number of the last change, of any group
+	 */
+	public long sequence() {
+		lock.lock();
+		try {
+			return sequence;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@PostConstruct
+	public void load() {
+		orderStore.load().forEach(order -> {
+			var previous = orders.putIfAbsent(OrderKey.of(order), order);
+			if (previous != null) {
+				log.warn("Duplicate order in the store, ignoring: {}", order);
+			} else {
+				index(order.getGroupId()).put(order.getId(), order);
+				report(order.getGroupId()).increment(order.getCleanedArticle());
+				articleIndex.add(order.getArticle());
+			}
+		});
+		orderStore.archivedArticles().forEach(articleIndex::add);
+		log.info("Order book loaded: {} orders, {} articles, durability={}", orders.size(), articleIndex.size(), durabilityMode);
+	}
+
+	public Optional<Order> find(String group, String name, String article) {
+		return Optional.ofNullable(orders.get(OrderKey.of(group, name, article)));
+	}
+
+	/**
+	 * Adds the order unless another one with the same group, name and cleaned article exists.
+	 *
+	 * @return The change, empty if the order already exists
+	 */
+	public Optional<OrderChange> add(Order order) {
+		lock.lock();
+		try {
+			var key = OrderKey.of(order);
+			if (orders.containsKey(key)) {
+				return Optional.empty();
+			}
+			order.setId(nextId());
+			order.setCreatedAt(Instant.now());
+			write(WriteType.SAVE, order);
+			return Optional.of(put(key, order));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// orders are broadcast with the change, so they must have their id by now
+	private OrderChange put(OrderKey key, Order order) {
+		Objects.requireNonNull(order.getId(), "order id");
+		orders.put(key, order);
+		index(key.group()).put(order.getId(), order);
+		report(key.group()).increment(key.article());
+		articleIndex.add(order.getArticle());
+		return record(OrderChange.Type.SAVE, key.group(), order);
+	}
+
+	/**
+	 * Adds all the orders that are not already present, ignoring duplicates within the batch.
+	 * New orders are written as a single batch.
+	 *
+	 * @return The changes of the orders actually added
+	 */
+	public List<OrderChange> addAll(List<Order> batch) {
+		lock.lock();
+		try {
+			return addAll(batch, true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Applies orders saved by another node of the cluster, which is in charge of persisting them.
+	 */
+	public List<OrderChange> applyRemoteSaves(List<Order> batch) {
+		lock.lock();
+		try {
+			return addAll(batch, false);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private List<OrderChange> addAll(List<Order> batch, boolean persist) {
+		Map<OrderKey, Order> added = new LinkedHashMap<>();
+		batch.forEach(order -> {
+			var key = OrderKey.of(order);
+			if (!orders.containsKey(key)) {
+				added.putIfAbsent(key, order);
+			}
+		});
+		if (added.isEmpty()) {
+			return List.of();
+		}
+		if (persist) {
+			var now = Instant.now();
+			added.values().forEach(order -> {
+				order.setId(nextId());
+				order.setCreatedAt(now);
+			});
+			write(added.values().stream().map(order -> new Write(WriteType.SAVE, order)).toList());
+		} else {
+			// the sending node assigns ids before publishing; a local one in case it did not
+			added.values().stream()
+				.filter(order -> order.getId() == null)
+				.forEach(order -> order.setId(nextId()));
+		}
+		return added.entrySet().stream()
+			.map(entry -> put(entry.getKey(), entry.getValue()))
+			.toList();
+	}
+
+	public Optional<OrderChange> remove(String group, String name, String article) {
+		lock.lock();
+		try {
+			return remove(group, name, article, true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Applies an order deleted by another node of the cluster, which is in charge of persisting it.
+	 */
+	public Optional<OrderChange> applyRemoteDelete(Order order) {
+		// waits for a flush in progress, whose batch would otherwise be queued again if it failed
+		persistLock.lock();
+		lock.lock();
+		try {
+			// a queued write of the same order would undo the delete on the next flush
+			var key = OrderKey.of(order);
+			dropPendingWrites(write -> OrderKey.of(write.order()).equals(key));
+			return remove(order.getGroupId(), order.getName(), order.getArticle(), false);
+		} finally {
+			lock.unlock();
+			persistLock.unlock();
+		}
+	}
+
+	private Optional<OrderChange> remove(String group, String name, String article, boolean persist) {
+		var key = OrderKey.of(group, name, article);
+		var order = orders.get(key);
+		if (order == null) {
+			return Optional.empty();
+		}
+		if (persist) {
+			write(WriteType.DELETE, order);
+		}
+		orders.remove(key);
+		index(group).remove(order.getId());
+		report(group).decrement(key.article());
+		articleIndex.remove(order.getArticle());
+		return Optional.of(record(OrderChange.Type.DELETE, group, order));
+	}
+
+	/**
+	 * Removes all the orders of a group, moving them to the archive before returning.
+	 *
+	 * @return Number of archived orders and the reset change
+	 */
+	public Cleared clear(String group) {
+		persistLock.lock();
+		lock.lock();
+		try {
+			int archived = archive(group);
+			var cleared = clearMemory(group);
+			if (archived != cleared.count()) {
+				log.warn("Archived {} orders of group '{}', {} in memory", archived, group, cleared.count());
+			}
+			return new Cleared(archived, cleared.change());
+		} finally {
+			lock.unlock();
+			persistLock.unlock();
+		}
+	}
+
+	/**
+	 * Moves the orders of a group to the archive, with the pending writes persisted first.
+	 * Nothing changes if it fails.
+	 *
+	 * @return Number of archived orders
+	 */
+	private int archive(String group) {
+		List<Write> batch = new ArrayList<>(pendingWrites);
+		// the day of the orders added before their creation time was recorded
+		int archived = orderStore.archive(group, LocalDate.now(), batch);
+		pendingWrites.clear();
+		log.info("Archived {} orders of group '{}'", archived, group);
+		return archived;
+	}
+
+	/**
+	 * Applies a reset made by another node of the cluster, which is in charge of persisting it.
+	 */
+	public Cleared applyRemoteReset(String group) {
+		// waits for a flush in progress, whose batch would otherwise be queued again if it failed
+		persistLock.lock();
+		lock.lock();
+		try {
+			// queued writes of the group would bring archived orders back on the next flush
+			dropPendingWrites(write -> group.equals(write.order().getGroupId()));
+			return clearMemory(group);
+		} finally {
+			lock.unlock();
+			persistLock.unlock();
+		}
+	}
+
+	// called with the lock held
+	private void dropPendingWrites(Predicate<Write> superseded) {
+		int before = pendingWrites.size();
+		if (pendingWrites.removeIf(superseded)) {
+			log.info("Dropped {} queued order writes superseded by another node", before - pendingWrites.size());
+		}
+	}
+
+	private Cleared clearMemory(String group) {
+		var groupOrders = index(group);
+		int count = groupOrders.size();
+		groupOrders.values().forEach(order -> orders.remove(OrderKey.of(order)));
+		groupOrders.clear();
+		report(group).clear();
+		return new Cleared(count, record(OrderChange.Type.RESET, group, null));
+	}
+
+	public List<Order> findAll(String group) {
+		return new ArrayList<>(index(group).values());
+	}
+
+	/**
+	 * @return All the current orders of a group with the version they are consistent with
+	 */
+	public Versioned versioned(String group) {
+		lock.lock();
+		try {
+			return new Versioned(version(group), findAll(group));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return The sequence number of the last change to the group, 0 if none since the start
+	 */
+	public long version(String group) {
+		return versions.getOrDefault(group, 0L);
+	}
+
+	/**
+	 * Keyset page of the orders of a group.
+	 *
+	 * @param afterId id of the last order of the previous page, null for the first page
+	 */
+	public List<Order> page(String group, Long afterId, int limit) {
+		return view(group, afterId).stream().limit(limit).toList();
+	}
+
+	/**
+	 * Live view of the orders of a group sorted by id, to iterate them without copying.
+	 * The iteration reflects some of the changes made while it runs.
+	 *
+	 * @param afterId id of the last order already seen, null for all the orders
+	 */
+	public Collection<Order> view(String group, Long afterId) {
+		var groupOrders = index(group);
+		var view = afterId == null ? groupOrders : groupOrders.tailMap(afterId, false);
+		return Collections.unmodifiableCollection(view.values());
+	}
+
+	private NavigableMap<Long, Order> index(String group) {
+		return ordersById.computeIfAbsent(group, g -> new ConcurrentSkipListMap<>());
+	}
+
+	/**
+	 * @return All the current orders of a group with the sequence number they are consistent with
+	 */
+	public OrderSnapshot snapshot(String group) {
+		lock.lock();
+		try {
+			return new OrderSnapshot(epoch, sequence, findAll(group));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the changes of a group made after the given sequence number.
+	 *
+	 * @return The changes, empty if they are no longer in the change log and a snapshot is needed
+	 */
+	public Optional<List<OrderChange>> changesSince(String group, String clientEpoch, long seq) {
+		lock.lock();
+		try {
+			if (!epoch.equals(clientEpoch) || seq > sequence) {
+				return Optional.empty();
+			}
+			if (seq == sequence) {
+				return Optional.of(List.of());
+			}
+			if (changeLog.isEmpty() || changeLog.peekFirst().seq() > seq + 1) {
+				return Optional.empty();
+			}
+			return Optional.of(changeLog.stream()
+				.filter(change -> change.seq() > seq && change.group().equals(group))
+				.toList());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private OrderChange record(OrderChange.Type type, String group, Order order) {
+		var change = new OrderChange(++sequence, type, group, order);
+		versions.put(group, change.seq());
+		changeLog.addLast(change);
+		if (changeLog.size() > changeLogSize) {
+			changeLog.removeFirst();
+		}
+		return change;
+	}
+
+	public ArticleReport.Report getReport(String group) {
+		return report(group).getReport();
+	}
+
+	/**
+	 * @return The articles ever ordered having a word starting with the query, most ordered first
+	 */
+	public List<ArticleSuggestion> suggestArticles(String query, int limit) {
+		return articleIndex.suggest(query, limit);
+	}
+
+	private ArticleReport report(String group) {
+		return reports.computeIfAbsent(group, g -> new ArticleReport());
+	}
+
+	private long nextId() {
+		if (nextId > maxId) {
+			maxId = orderStore.nextIdBlock();
+			nextId = Math.max(1, maxId - Order.ID_BLOCK_SIZE + 1);
+		}
+		return nextId++;
+	}
+
+	private void write(WriteType type, Order order) {
+		write(List.of(new Write(type, order)));
+	}
+
+	private void write(List<Write> writes) {
+		if (durabilityMode == DurabilityMode.WRITE_THROUGH) {
+			persist(writes);
+		} else {
+			pendingWrites.addAll(writes);
+		}
+	}
+
+	/**
+	 * Flushes the queued writes to the store, in the order they have been made.
+	 */
+	@Scheduled(fixedDelayString = "${orders.flush-interval-ms:500}")
+	public void flush() {
+		persistLock.lock();
+		try {
+			List<Write> batch;
+			lock.lock();
+			try {
+				if (pendingWrites.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<>(pendingWrites);
+				pendingWrites.clear();
+			} finally {
+				lock.unlock();
+			}
+
+			List<Write> retry = persistIsolating(batch);
+			if (retry.isEmpty()) {
+				log.debug("Flushed {} order writes", batch.size());
+				return;
+			}
+			lock.lock();
+			try {
+				for (int i = retry.size() - 1; i >= 0; i--) {
+					pendingWrites.addFirst(retry.get(i));
+				}
+			} finally {
+				lock.unlock();
+			}
+		} finally {
+			persistLock.unlock();
+		}
+	}
+
+	/**
+	 * Persists the writes in order. A batch the store rejects for good is split in halves until the
+	 * rejected writes are found, which go to the dead-letter log instead of blocking the writes after them.
+	 *
+	 * @return The writes not persisted because of a failure that may go away, to be retried, in order
+	 */
+	private List<Write> persistIsolating(List<Write> batch) {
+		try {
+			persist(batch);
+			return List.of();
+		} catch (NonTransientDataAccessException e) {
+			if (batch.size() == 1) {
+				deadLetters.error("Order write rejected by the store, dropped: {} {} ({})",
+					batch.get(0).type(), batch.get(0).order(), e.getMostSpecificCause().getMessage());
+				return List.of();
+			}
+			int half = batch.size() / 2;
+			List<Write> retry = persistIsolating(batch.subList(0, half));
+			if (!retry.isEmpty()) {
+				List<Write> remaining = new ArrayList<>(retry);
+				remaining.addAll(batch.subList(half, batch.size()));
+				return remaining;
+			}
+			return persistIsolating(batch.subList(half, batch.size()));
+		} catch (Exception e) {
+			log.error("Order flush failed, {} writes will be retried: {}", batch.size(), e.getMessage());
+			return batch;
+		}
+	}
+
+	/**
+	 * Persists the writes. An order saved by another node at the same time takes the id it has there.
+	 */
+	private void persist(List<Write> batch) {
+		orderStore.persist(batch).forEach(conflict -> reassignId(conflict.order(), conflict.existingId()));
+	}
+
+	/**
+	 * Gives an order the id it has in the store. The change is recorded as a SAVE, so the cached
+	 * JSON, the ETag and the reconnecting clients get the new id.
+	 */
+	private void reassignId(Order order, long id) {
+		lock.lock();
+		try {
+			var groupOrders = index(order.getGroupId());
+			boolean current = groupOrders.remove(order.getId(), order);
+			order.setId(id);
+			if (current) {
+				groupOrders.put(id, order);
+				record(OrderChange.Type.SAVE, order.getGroupId(), order);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		log.info("Flushing pending order writes...");
+		flush();
+	}
+}
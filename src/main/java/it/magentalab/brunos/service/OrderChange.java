@@ -0,0 +1,18 @@
+package it.magentalab.brunos.service;
+
+import it.magentalab.brunos.model.Order;
+
+/**
+ * A mutation of the order book, numbered with a monotonically increasing sequence.
+ *
+ * @param group the group of the changed orders
+ * @param order the saved or deleted order, null on reset
+ */
+public record OrderChange(long seq, Type type, String group, Order order) {
+
+	public enum Type {
+		SAVE,
+		DELETE,
+		RESET
+	}
+}
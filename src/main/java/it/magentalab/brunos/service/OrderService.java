@@ -1,109 +1,206 @@
 package it.magentalab.brunos.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.magentalab.brunos.cluster.ClusterEvent;
+import it.magentalab.brunos.cluster.ClusterEventBus;
+import it.magentalab.brunos.dto.ArticleSuggestion;
 import it.magentalab.brunos.dto.OrderDto;
 import it.magentalab.brunos.model.Order;
-import it.magentalab.brunos.repository.OrderRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class OrderService {
 
-	private final OrderRepository orderRepository;
+	/**
+	 * The orders of a group encoded as a JSON array, never modified once built.
+	 *
+	 * @param version the order book version of the group the orders are consistent with
+	 */
+	public record OrdersJson(long version, byte[] json) {
+	}
+
+	private final OrderBook orderBook;
 	private final SocketIoService socketIoService;
+	private final ClusterEventBus clusterEventBus;
+	private final ObjectMapper objectMapper;
+
+	// the last encoded orders of each group, rebuilt on the first request after a change
+	private final Map<String, OrdersJson> ordersJson = new ConcurrentHashMap<>();
+
+	private final Timer saveTimer;
+	private final Timer deleteTimer;
+	private final Timer reportTimer;
+	private final Timer resetTimer;
 
 	@Autowired
-	public OrderService(OrderRepository orderRepository, SocketIoService socketIoService) {
-		this.orderRepository = orderRepository;
+	public OrderService(OrderBook orderBook, SocketIoService socketIoService, ClusterEventBus clusterEventBus, ObjectMapper objectMapper,
+						MeterRegistry meterRegistry) {
+		this.orderBook = orderBook;
 		this.socketIoService = socketIoService;
+		this.clusterEventBus = clusterEventBus;
+		this.objectMapper = objectMapper;
+		this.saveTimer = timer(meterRegistry, "save");
+		this.deleteTimer = timer(meterRegistry, "delete");
+		this.reportTimer = timer(meterRegistry, "report");
+		this.resetTimer = timer(meterRegistry, "reset");
+	}
+
+	private static Timer timer(MeterRegistry meterRegistry, String operation) {
+		return Timer.builder("brunos.orders." + operation)
+			.description("Duration of the order " + operation + ", broadcast enqueue included")
+			.register(meterRegistry);
 	}
 
 	public Order save(OrderDto orderDto) {
-		// check, maybe there's already an order with the same name and article
-		List<Order> existingOrders = orderRepository.findByNameAndArticle(orderDto.name(), orderDto.article());
-		if (!existingOrders.isEmpty()) {
-			var existingOrder = existingOrders.get(0);
-			log.warn("Order already exists: {}", existingOrder);
-			return existingOrder;
-		}
+		return saveTimer.record(() -> doSave(orderDto));
+	}
 
+	private Order doSave(OrderDto orderDto) {
+		validate(orderDto);
 		// Convert OrderDto to Order entity
 		Order order = new Order();
 		order.setName(orderDto.name());
 		order.setArticle(orderDto.article());
+		order.setGroupId(orderDto.group());
 
-		var saved = orderRepository.save(order);
-		this.socketIoService.sendOrder(saved);
+		// check, maybe there's already an order with the same name and article
+		var change = orderBook.add(order);
+		if (change.isEmpty()) {
+			var existingOrder = orderBook.find(orderDto.group(), orderDto.name(), orderDto.article()).orElse(order);
+			log.warn("Order already exists: {}", existingOrder);
+			return existingOrder;
+		}
+
+		this.socketIoService.sendOrder(change.get());
+		clusterEventBus.publish(ClusterEvent.saved(clusterEventBus.nodeId(), order.getGroupId(), List.of(order)));
+		return order;
+	}
+
+	/**
+	 * Saves a batch of orders, skipping the ones already present, and broadcasts them as a single event.
+	 *
+	 * @return The orders actually saved
+	 */
+	public List<Order> saveAll(List<OrderDto> orderDtos) {
+		return saveTimer.record(() -> doSaveAll(orderDtos));
+	}
+
+	private List<Order> doSaveAll(List<OrderDto> orderDtos) {
+		orderDtos.forEach(OrderService::validate);
+		List<Order> orders = orderDtos.stream()
+			.map(orderDto -> {
+				Order order = new Order();
+				order.setName(orderDto.name());
+				order.setArticle(orderDto.article());
+				order.setGroupId(orderDto.group());
+				return order;
+			})
+			.toList();
+
+		var changes = orderBook.addAll(orders);
+		log.info("Saved {} of {} orders", changes.size(), orders.size());
+		if (!changes.isEmpty()) {
+			this.socketIoService.sendOrders(changes);
+		}
+		var saved = changes.stream().map(OrderChange::order).toList();
+		saved.stream()
+			.collect(Collectors.groupingBy(Order::getGroupId))
+			.forEach((group, groupOrders) -> clusterEventBus.publish(ClusterEvent.saved(clusterEventBus.nodeId(), group, groupOrders)));
 		return saved;
 	}
 
-	public void delete(OrderDto orderDto) {
-		orderRepository.findByNameAndArticle(orderDto.name(), orderDto.article())
-			.forEach(order -> {
-				log.info("Deleting order: {}", order);
-				orderRepository.delete(order);
-				this.socketIoService.deleteOrder(order);
-			});
-	}
-
-	public String generateReport() {
-		List<Order> allOrders = orderRepository.findAll();
-		StringBuilder report = new StringBuilder();
-
-		if (allOrders.isEmpty()) {
-			report.append("No orders found in the system.\n");
-		} else {
-			var guestsNumber = allOrders.size();
-			report.append("Ciao Bruno, oggi ");
-			if (guestsNumber == 1) {
-				report.append("ci sono solo io");
-			} else {
-				report.append("siamo in ").append(guestsNumber);
-			}
-			report.append(":\n");
-
-			// Group orders by article and count them
-			Map<String, Long> articleCounts = allOrders.stream()
-				.collect(Collectors.groupingBy(Order::getCleanedArticle, Collectors.counting()));
-
-			// Sort articles by count in descending order
-			articleCounts.entrySet().stream()
-				.sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-				.forEach(entry -> {
-					String article = entry.getKey();
-					Long count = entry.getValue();
-					report.append(count)
-						.append(" x ")
-						.append(article)
-						.append("\n");
-				});
-
-			report.append("\nGrazie, a dopo!");
+	/**
+	 * Rejects the orders the store could never persist, which would otherwise be broadcast and then fail every flush.
+	 */
+	private static void validate(OrderDto orderDto) {
+		String error = orderDto.validationError();
+		if (error != null) {
+			throw new IllegalArgumentException("Invalid order " + orderDto + ": " + error);
 		}
+	}
 
+	public void delete(OrderDto orderDto) {
+		deleteTimer.record(() -> orderBook.remove(orderDto.group(), orderDto.name(), orderDto.article())
+			.ifPresent(change -> {
+				log.info("Deleting order: {}", change.order());
+				this.socketIoService.deleteOrder(change);
+				clusterEventBus.publish(ClusterEvent.deleted(clusterEventBus.nodeId(), change.group(), change.order()));
+			}));
+	}
 
-		return report.toString();
+	public String generateReport(String group) {
+		return getReport(group).text();
+	}
+
+	public ArticleReport.Report getReport(String group) {
+		return reportTimer.record(() -> orderBook.getReport(group));
 	}
 
 	/**
-	 * Deletes all orders from the repository.
+	 * Deletes all the orders of a group, archiving them. Clients are notified once the archive is committed.
 	 *
-	 * @return Number of deleted orders
+	 * @return Number of archived orders
+	 */
+	public int deleteAllOrders(String group) {
+		return resetTimer.record(() -> {
+			var cleared = orderBook.clear(group);
+			this.socketIoService.reset(cleared.change());
+			clusterEventBus.publish(ClusterEvent.reset(clusterEventBus.nodeId(), group));
+			return cleared.count();
+		});
+	}
+
+	public List<Order> findAll(String group) {
+		return orderBook.findAll(group);
+	}
+
+	/**
+	 * @return The orders of a group as JSON, encoded again only if they changed since the last call
+	 */
+	public OrdersJson getOrdersJson(String group) {
+		var cached = ordersJson.get(group);
+		if (cached != null && cached.version() == orderBook.version(group)) {
+			return cached;
+		}
+		var versioned = orderBook.versioned(group);
+		try {
+			var encoded = new OrdersJson(versioned.version(), objectMapper.writeValueAsBytes(versioned.orders()));
+			return ordersJson.merge(group, encoded, (previous, current) -> previous.version() >= current.version() ? previous : current);
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Orders of group " + group + " not serializable", e);
+		}
+	}
+
+	/**
+	 * @param afterId id of the last order of the previous page, null for the first page
 	 */
-	public int deleteAllOrders() {
-		long count = orderRepository.count();
-		orderRepository.deleteAll();
-		this.socketIoService.reset();
-		return (int) count;
+	public List<Order> findPage(String group, Long afterId, int limit) {
+		return orderBook.page(group, afterId, limit);
 	}
 
-	public List<Order> findAll() {
-		return orderRepository.findAll();
+	/**
+	 * @return A live view of the orders of a group sorted by id, to stream them without copying
+	 */
+	public Collection<Order> viewOrders(String group, Long afterId) {
+		return orderBook.view(group, afterId);
+	}
+
+	/**
+	 * @return The articles ever ordered having a word starting with the query, most ordered first
+	 */
+	public List<ArticleSuggestion> suggestArticles(String query, int limit) {
+		return orderBook.suggestArticles(query, limit);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package it.magentalab.brunos.service;
+
+import it.magentalab.brunos.dto.ChatPost;
+import it.magentalab.brunos.dto.PostMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last {@code capacity} posts of a group, numbered from 1.
+ * <p>
+ * Lock-free: a writer takes the next sequence number and stores the post in its slot, overwriting
+ * the post {@code capacity} places before, but never a newer one stored by a faster writer.
+ * Readers skip the slots holding a post other than the one they expect, either overwritten
+ * meanwhile or not stored yet.
+ */
+public class PostRingBuffer {
+
+	private final AtomicReferenceArray<ChatPost> slots;
+	private final AtomicLong sequence = new AtomicLong();
+
+	public PostRingBuffer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Post history size must be positive: " + capacity);
+		}
+		this.slots = new AtomicReferenceArray<>(capacity);
+	}
+
+	/**
+	 * @return The post with its sequence number
+	 */
+	public ChatPost add(PostMessage message) {
+		long seq = sequence.incrementAndGet();
+		var post = new ChatPost(seq, message.author(), message.post());
+		int slot = slot(seq);
+		while (true) {
+			var current = slots.get(slot);
+			// a writer stalled since taking its number must not overwrite a newer post
+			if (current != null && current.seq() > seq) {
+				return post;
+			}
+			if (slots.compareAndSet(slot, current, post)) {
+				return post;
+			}
+		}
+	}
+
+	public long lastSeq() {
+		return sequence.get();
+	}
+
+	/**
+	 * @return The posts still held after the given sequence number, oldest first
+	 */
+	public List<ChatPost> since(long afterSeq) {
+		long last = sequence.get();
+		long first = Math.max(afterSeq + 1, last - slots.length() + 1);
+		List<ChatPost> posts = new ArrayList<>((int) Math.max(0, last - first + 1));
+		for (long seq = first; seq <= last; seq++) {
+			var post = slots.get(slot(seq));
+			if (post != null && post.seq() == seq) {
+				posts.add(post);
+			}
+		}
+		return posts;
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % slots.length());
+	}
+}
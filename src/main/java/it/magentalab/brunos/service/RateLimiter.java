@@ -0,0 +1,115 @@
+package it.magentalab.brunos.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token buckets keyed by client, e.g. a Socket.IO session or a remote address.
+ * <p>
+ * A bucket holds up to {@code capacity} tokens and gets {@code perSecond} back every second; each
+ * request takes one. Buckets are updated with compare-and-set, there is no lock. Buckets that have
+ * refilled are indistinguishable from new ones and are the first to go when there are more than
+ * {@code maxKeys}.
+ */
+@Slf4j
+public class RateLimiter {
+
+	private record State(double tokens, long refilledAt) {
+	}
+
+	private final String name;
+	private final double capacity;
+	private final double perNano;
+	private final int maxKeys;
+	private final Counter rejections;
+
+	private final Map<String, AtomicReference<State>> buckets = new ConcurrentHashMap<>();
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	public RateLimiter(String name, int capacity, double perSecond, int maxKeys, MeterRegistry registry) {
+		this.name = name;
+		this.capacity = capacity;
+		this.perNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+		this.maxKeys = maxKeys;
+		this.rejections = Counter.builder("brunos.ratelimit.rejections")
+			.description("Requests and events rejected by the rate limiter")
+			.tag("limiter", name)
+			.register(registry);
+		registry.gaugeMapSize("brunos.ratelimit.keys", Tags.of("limiter", name), buckets);
+	}
+
+	/**
+	 * Takes a token from the bucket of the key.
+	 *
+	 * @return false if the bucket is empty, the request must be rejected
+	 */
+	public boolean tryAcquire(String key) {
+		var bucket = buckets.get(key);
+		if (bucket == null) {
+			bucket = buckets.computeIfAbsent(key, k -> new AtomicReference<>(new State(capacity, System.nanoTime())));
+			if (buckets.size() > maxKeys) {
+				sweep();
+			}
+		}
+		while (true) {
+			State state = bucket.get();
+			long now = System.nanoTime();
+			double tokens = tokens(state, now);
+			if (tokens < 1) {
+				rejections.increment();
+				log.debug("Rate limit {}: richiesta rifiutata per {}", name, key);
+				return false;
+			}
+			if (bucket.compareAndSet(state, new State(tokens - 1, now))) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * @return Seconds until a token is available again in an empty bucket
+	 */
+	public long retryAfterSeconds() {
+		return Math.max(1, (long) Math.ceil(1 / (perNano * TimeUnit.SECONDS.toNanos(1))));
+	}
+
+	/**
+	 * Drops the bucket of a client that is gone.
+	 */
+	public void forget(String key) {
+		buckets.remove(key);
+	}
+
+	private double tokens(State state, long now) {
+		return Math.min(capacity, state.tokens() + (now - state.refilledAt()) * perNano);
+	}
+
+	/**
+	 * Evicts the full buckets, then arbitrary ones if there are still too many. Only one thread sweeps at a time.
+	 */
+	private void sweep() {
+		if (!sweeping.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			long now = System.nanoTime();
+			buckets.values().removeIf(bucket -> tokens(bucket.get(), now) >= capacity);
+			Iterator<String> keys = buckets.keySet().iterator();
+			while (buckets.size() > maxKeys && keys.hasNext()) {
+				keys.next();
+				keys.remove();
+			}
+		} finally {
+			sweeping.set(false);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package it.magentalab.brunos.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Actuator endpoint listing the connected Socket.IO clients with the depth and the lag of their outbound queue:
+ * GET /actuator/socketio
+ */
+@Component
+@Endpoint(id = "socketio")
+public class SocketIoEndpoint {
+
+	private final SocketIoService socketIoService;
+
+	@Autowired
+	public SocketIoEndpoint(SocketIoService socketIoService) {
+		this.socketIoService = socketIoService;
+	}
+
+	@ReadOperation
+	public List<ClientOutbox.Stats> clients() {
+		return socketIoService.getClientStats();
+	}
+}
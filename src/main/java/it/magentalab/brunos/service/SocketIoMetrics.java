@@ -0,0 +1,96 @@
+package it.magentalab.brunos.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Socket.IO meters: connected clients, events sent and failed by event type, the fan-out
+ * duration from the moment an event is enqueued to the moment it has been handed to every client,
+ * and the state of the client outbound queues.
+ */
+@Component
+public class SocketIoMetrics {
+
+	private final MeterRegistry registry;
+
+	@Autowired
+	public SocketIoMetrics(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	public <M extends Map<?, ?>> M clientsGauge(M clients) {
+		return registry.gaugeMapSize("brunos.socketio.clients", Tags.empty(), clients);
+	}
+
+	/**
+	 * Registers the gauges of the deepest and the most lagging outbound queue.
+	 */
+	public void outboxGauges(Map<?, ClientOutbox> outboxes) {
+		Gauge.builder("brunos.socketio.outbox.depth.max", outboxes, o -> max(o.values(), ClientOutbox::depth))
+			.description("Frames queued for the slowest client")
+			.register(registry);
+		Gauge.builder("brunos.socketio.outbox.lag.max", outboxes, o -> max(o.values(), ClientOutbox::lagMillis))
+			.description("Age of the oldest frame not yet delivered to a client")
+			.baseUnit("milliseconds")
+			.register(registry);
+	}
+
+	private static double max(Collection<ClientOutbox> outboxes, ToDoubleFunction<ClientOutbox> value) {
+		return outboxes.stream().mapToDouble(value).max().orElse(0);
+	}
+
+	public void resync() {
+		Counter.builder("brunos.socketio.outbox.resyncs")
+			.description("Queued order changes replaced by a snapshot because the client was too slow")
+			.register(registry)
+			.increment();
+	}
+
+	public void evicted() {
+		Counter.builder("brunos.socketio.outbox.evictions")
+			.description("Clients disconnected because they were too slow")
+			.register(registry)
+			.increment();
+	}
+
+	/**
+	 * @param recipients Number of clients the event has been sent to
+	 */
+	public void sent(String event, int recipients) {
+		Counter.builder("brunos.socketio.events.sent")
+			.description("Events sent, one per recipient")
+			.tag("event", event)
+			.register(registry)
+			.increment(recipients);
+	}
+
+	public void failed(String event) {
+		Counter.builder("brunos.socketio.events.failed")
+			.description("Events that could not be sent to a client")
+			.tag("event", event)
+			.register(registry)
+			.increment();
+	}
+
+	/**
+	 * @param enqueuedAt {@link System#nanoTime()} when the event has been enqueued
+	 */
+	public void fanOut(String event, long enqueuedAt) {
+		Timer.builder("brunos.socketio.fanout")
+			.description("Time from enqueue to delivery of an event to all its recipients")
+			.tag("event", event)
+			.publishPercentileHistogram()
+			.register(registry)
+			.record(System.nanoTime() - enqueuedAt, TimeUnit.NANOSECONDS);
+	}
+}
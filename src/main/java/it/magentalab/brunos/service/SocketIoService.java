@@ -3,49 +3,145 @@ package it.magentalab.brunos.service;
 import com.corundumstudio.socketio.AckRequest;
 import com.corundumstudio.socketio.SocketIOClient;
 import com.corundumstudio.socketio.SocketIOServer;
-import com.corundumstudio.socketio.listener.ConnectListener;
-import com.corundumstudio.socketio.listener.DisconnectListener;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import it.magentalab.brunos.cluster.ClusterEvent;
+import it.magentalab.brunos.cluster.ClusterEventBus;
+import it.magentalab.brunos.dto.InitMessage;
+import it.magentalab.brunos.dto.PostBatch;
 import it.magentalab.brunos.dto.PostMessage;
 import it.magentalab.brunos.model.Order;
-import it.magentalab.brunos.repository.OrderRepository;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
 public class SocketIoService {
 	private static final String ORDER_EVENT = "order";
+	private static final String ORDERS_EVENT = "orders";
 	private static final String DELETE_EVENT = "delete";
 	private static final String RESET_EVENT = "reset";
 	private static final String POST_EVENT = "post";
 	private static final String INIT_EVENT = "init";
 	private static final String MENU_UPDATED_EVENT = "menu-updated";
+	private static final String SNAPSHOT_EVENT = "snapshot";
+	private static final String DICTIONARY_EVENT = "dictionary";
+	private static final String POSTS_EVENT = "posts";
 
-	private final Set<SocketIOClient> clients = ConcurrentHashMap.newKeySet();
-	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+	// handshake parameters of clients that keep track of the order sequence
+	private static final String EPOCH_PARAM = "epoch";
+	private static final String LAST_SEQ_PARAM = "lastSeq";
+	// sequence of the last post seen by a reconnecting client, in the same epoch
+	private static final String LAST_POST_SEQ_PARAM = "lastPostSeq";
+	// order group of the client, each group is a Socket.IO room
+	private static final String GROUP_PARAM = "group";
+	// enc=bin: order, orders and delete events in the compact binary encoding of OrderBinaryCodec
+	private static final String ENCODING_PARAM = "enc";
+	private static final String BINARY_ENCODING = "bin";
+	// error acked to the posts rejected by the rate limiter
+	private static final String RATE_LIMITED = "rate-limited";
 
-	private final OrderRepository orderRepository;
+	// order changes, replaced by a snapshot when a slow client falls behind
+	private static final Set<String> DELTA_EVENTS = Set.of(ORDER_EVENT, ORDERS_EVENT, DELETE_EVENT, RESET_EVENT, SNAPSHOT_EVENT);
+
+	private final Map<UUID, ClientOutbox> clients;
+	// last handler of each client, the next one runs after it
+	private final Map<UUID, CompletableFuture<Void>> handlerQueues = new ConcurrentHashMap<>();
+	// recent posts of each group, replayed to connecting clients
+	private final Map<String, PostRingBuffer> postHistory = new ConcurrentHashMap<>();
+
+	private final OrderBook orderBook;
 	private final SocketIOServer socketIOServer;
+	private final ClusterEventBus clusterEventBus;
+	private final SocketIoMetrics metrics;
+	private final OrderBinaryCodec binaryCodec;
+	private final BroadcastDispatcher dispatcher;
+	private final RateLimiter postRateLimiter;
+	private final ClientTransport transport = new ClientTransport();
+	private final ExecutorService handlerExecutor;
+	private final int clientQueueSize;
+	private final ClientOutbox.OverflowPolicy overflowPolicy;
+	private final long maxLagMs;
+	private final int postHistorySize;
 
 	@Autowired
-	public SocketIoService(SocketIOServer socketIOServer, OrderRepository orderRepository) {
-		this.orderRepository = orderRepository;
+	public SocketIoService(SocketIOServer socketIOServer, OrderBook orderBook, ClusterEventBus clusterEventBus, ObjectMapper objectMapper,
+						   SocketIoMetrics metrics, OrderBinaryCodec binaryCodec, @Qualifier("postRateLimiter") RateLimiter postRateLimiter,
+						   @Value("${socket.io.broadcast.window-ms:20}") long broadcastWindowMs,
+						   @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+						   @Value("${socket.io.handler-threads:16}") int handlerThreads,
+						   @Value("${socket.io.client.queue-size:256}") int clientQueueSize,
+						   @Value("${socket.io.client.overflow:resync}") ClientOutbox.OverflowPolicy overflowPolicy,
+						   @Value("${socket.io.client.max-lag-ms:30000}") long maxLagMs,
+						   @Value("${socket.io.posts.history-size:100}") int postHistorySize) {
+		this.orderBook = orderBook;
 		this.socketIOServer = socketIOServer;
+		this.clusterEventBus = clusterEventBus;
+		this.metrics = metrics;
+		this.binaryCodec = binaryCodec;
+		this.postRateLimiter = postRateLimiter;
+		this.clientQueueSize = clientQueueSize;
+		this.overflowPolicy = overflowPolicy;
+		this.maxLagMs = maxLagMs;
+		this.postHistorySize = postHistorySize;
+		this.clients = metrics.clientsGauge(new ConcurrentHashMap<>());
+		metrics.outboxGauges(clients);
+		this.dispatcher = new BroadcastDispatcher(objectMapper, room -> (room == null
+			? socketIOServer.getBroadcastOperations()
+			: socketIOServer.getRoomOperations(room)).getClients(), metrics, clients::get, broadcastWindowMs);
+		this.dispatcher.start();
+		// handlers may block (snapshots, cluster publish), keep them off the Netty event loop
+		this.handlerExecutor = virtualThreads
+			? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ws-handler-", 0).factory())
+			: Executors.newFixedThreadPool(handlerThreads, Thread.ofPlatform().name("ws-handler-", 0).daemon().factory());
+		log.info("Socket.IO handlers on {} threads", virtualThreads ? "virtual" : handlerThreads + " platform");
+
+		socketIOServer.addConnectListener(client -> handle(client, () -> onNewConnect(client)));
+		socketIOServer.addDisconnectListener(client -> handle(client, () -> onDisconnect(client)));
+		socketIOServer.addEventListener(POST_EVENT, PostMessage.class,
+			(client, message, ackRequest) -> {
+				// checked on the event loop: rejected posts never reach the handlers
+				if (!postRateLimiter.tryAcquire(client.getSessionId().toString())) {
+					rejectPost(client, ackRequest);
+					return;
+				}
+				handle(client, () -> onPostEventReceived(client, message, ackRequest));
+			});
+	}
 
-		socketIOServer.addConnectListener(this.onNewConnect);
-		socketIOServer.addDisconnectListener(this.onDisconnect);
-		socketIOServer.addEventListener(POST_EVENT, PostMessage.class, this::onPostEventReceived);
+	/**
+	 * Runs a handler on the handler executor. Handlers of the same client run one at a time,
+	 * in the order their events have been received.
+	 */
+	private void handle(SocketIOClient client, Runnable handler) {
+		handlerQueues.compute(client.getSessionId(), (sessionId, last) ->
+			(last == null ? CompletableFuture.<Void>completedFuture(null) : last)
+				.thenRunAsync(handler, handlerExecutor)
+				.exceptionally(e -> {
+					log.error("WS: errore nella gestione dell'evento session id={}", sessionId, e);
+					return null;
+				}));
 	}
 
-	private final ConnectListener onNewConnect = client -> {
+	private void onNewConnect(SocketIOClient client) {
 		String ipAddress = client.getHandshakeData().getAddress().getAddress().getHostAddress();
 		String transport = client.getHandshakeData().getHttpHeaders().get("Connection");
 		String upgrade = client.getHandshakeData().getHttpHeaders().get("Upgrade");
@@ -54,14 +150,20 @@ public class SocketIoService {
 
 		if (ipAddress != null) {
 			// Verifica se il client è già connesso
-			boolean clientExists = clients.stream()
-				.anyMatch(c -> c.getSessionId().equals(client.getSessionId()));
+			String group = groupOf(client);
+			var outbox = newOutbox(client, group);
+			boolean clientExists = clients.putIfAbsent(client.getSessionId(), outbox) != null;
 
 			if (!clientExists) {
-				clients.add(client);
-				log.info("Connessione accettata, client ID: {}", client.getSessionId());
-				sendInit(client);
-				scheduler.schedule(() -> sendAllOrdersTo(client), 1500, TimeUnit.MILLISECONDS);
+				sendInit(outbox);
+				if (outbox.isBinary()) {
+					// before joining the room, so every binary frame it gets is known or self-describing
+					sendDictionary(outbox);
+				}
+				client.joinRoom(group);
+				log.info("Connessione accettata, client ID: {}, group: {}", client.getSessionId(), group);
+				sendPostsTo(outbox);
+				syncOrdersTo(outbox);
 			} else {
 				log.debug("Connection upgrade o controllo connettività, client ID: {}", client.getSessionId());
 			}
@@ -69,88 +171,262 @@ public class SocketIoService {
 			log.warn("Nuova connessione rifiutata. ip={}", ipAddress);
 			client.disconnect();
 		}
-	};
+	}
 
-	private final DisconnectListener onDisconnect = client -> {
+	private void onDisconnect(SocketIOClient client) {
 		String ipAddress = client.getHandshakeData().getAddress().getAddress().getHostAddress();
 
 		log.info("Device IP {} disconnected. Session ID: {}", ipAddress, client.getSessionId());
 
-		clients.remove(client);
-	};
+		clients.remove(client.getSessionId());
+		handlerQueues.remove(client.getSessionId());
+		postRateLimiter.forget(client.getSessionId().toString());
+	}
 
 	private void onPostEventReceived(SocketIOClient sender, PostMessage message, AckRequest ackRequest) {
 		log.info("Post dal client {}: {}", sender.getSessionId(), message);
 		// Inoltra a tutti tranne il mittente
-		clients.stream()
-			.filter(client -> !client.getSessionId().equals(sender.getSessionId()))
-			.forEach(client -> client.sendEvent(POST_EVENT, message));
+		String group = groupOf(sender);
+		dispatcher.broadcastExcluding(group, sender.getSessionId(), POST_EVENT, posts(group).add(message));
+		clusterEventBus.publish(ClusterEvent.post(clusterEventBus.nodeId(), group, message));
 	}
 
-	private void sendInit(SocketIOClient client) {
-		log.debug("Sending init event to client {}", client.getSessionId());
-		client.sendEvent(INIT_EVENT);
+	private void rejectPost(SocketIOClient sender, AckRequest ackRequest) {
+		log.debug("Post dal client {} rifiutato: troppi messaggi", sender.getSessionId());
+		if (ackRequest.isAckRequested()) {
+			ackRequest.sendAckData(Map.of("error", RATE_LIMITED, "retryAfter", postRateLimiter.retryAfterSeconds()));
+		}
 	}
 
-	private void sendAllOrdersTo(SocketIOClient client) {
-		log.debug("Sending all orders to client {}", client.getSessionId());
-		orderRepository.findAll().forEach(order -> {
-			sendOrderTo(client, order);
+	/**
+	 * Relays a post received from another node.
+	 */
+	public void relayPost(String group, PostMessage message) {
+		log.info("Post da un altro nodo: {}", message);
+		dispatcher.broadcast(group, POST_EVENT, posts(group).add(message));
+	}
+
+	private ClientOutbox newOutbox(SocketIOClient client, String group) {
+		// only clients tracking the sequence can apply a snapshot in place of the missed changes
+		boolean tracksSequence = client.getHandshakeData().getSingleUrlParam(LAST_SEQ_PARAM) != null;
+		return new ClientOutbox(client, transport, group, clientQueueSize, overflowPolicy, DELTA_EVENTS::contains,
+			SNAPSHOT_EVENT, tracksSequence ? () -> new Object[]{orderBook.snapshot(group)} : null, handlerExecutor, metrics,
+			BINARY_ENCODING.equals(client.getHandshakeData().getSingleUrlParam(ENCODING_PARAM)));
+	}
+
+	/**
+	 * Retries the outboxes of polling clients and disconnects the clients lagging more than {@code socket.io.client.max-lag-ms}.
+	 */
+	@Scheduled(fixedDelayString = "${socket.io.client.sweep-ms:1000}")
+	public void sweepOutboxes() {
+		clients.values().forEach(outbox -> {
+			if (outbox.lagMillis() > maxLagMs) {
+				outbox.evict("in ritardo di " + outbox.lagMillis() + " ms");
+			} else {
+				outbox.drain();
+			}
 		});
 	}
 
-	private void sendOrderTo(SocketIOClient client, Order order) {
-		try {
-			log.trace("Sending {} to client {}...", order, client.getSessionId());
-			client.sendEvent(ORDER_EVENT, order);
-		} catch (Exception e) {
-			log.error("WS: Errore nella comunicazione session id={}", client.getSessionId());
+	/**
+	 * @return Queue depth and lag of every connected client
+	 */
+	public List<ClientOutbox.Stats> getClientStats() {
+		return clients.values().stream().map(ClientOutbox::stats).toList();
+	}
+
+	private static String groupOf(SocketIOClient client) {
+		return StringUtils.defaultIfBlank(client.getHandshakeData().getSingleUrlParam(GROUP_PARAM), Order.DEFAULT_GROUP);
+	}
+
+	private void sendInit(ClientOutbox outbox) {
+		log.debug("Sending init event to client {}", outbox.getClient().getSessionId());
+		outbox.offerUnbounded(INIT_EVENT, new InitMessage(orderBook.getEpoch(), orderBook.sequence()));
+	}
+
+	private void sendDictionary(ClientOutbox outbox) {
+		var dictionary = binaryCodec.dictionary(outbox.getGroup());
+		log.debug("Sending {} dictionary articles to client {}", dictionary.size(), outbox.getClient().getSessionId());
+		outbox.knowArticles(dictionary.size());
+		outbox.offerUnbounded(DICTIONARY_EVENT, dictionary);
+	}
+
+	/**
+	 * Sends the recent posts of the group in a single frame: those after {@code lastPostSeq} if the
+	 * client sends it with the current epoch, otherwise all of them. Sent after joining the room,
+	 * so a post relayed meanwhile may arrive twice: clients drop posts whose sequence they have seen.
+	 */
+	private void sendPostsTo(ClientOutbox outbox) {
+		var handshake = outbox.getClient().getHandshakeData();
+		String lastPostSeq = handshake.getSingleUrlParam(LAST_POST_SEQ_PARAM);
+		boolean sameEpoch = orderBook.getEpoch().equals(handshake.getSingleUrlParam(EPOCH_PARAM));
+		long afterSeq = sameEpoch && NumberUtils.isDigits(lastPostSeq) ? Long.parseLong(lastPostSeq) : 0;
+
+		var history = posts(outbox.getGroup());
+		long last = history.lastSeq();
+		var posts = history.since(afterSeq);
+		if (posts.isEmpty()) {
+			return;
+		}
+		log.debug("Sending {} posts after seq {} to client {}", posts.size(), afterSeq, outbox.getClient().getSessionId());
+		outbox.offerUnbounded(POSTS_EVENT, new PostBatch(last, posts));
+	}
+
+	private PostRingBuffer posts(String group) {
+		return postHistory.computeIfAbsent(group, g -> new PostRingBuffer(postHistorySize));
+	}
+
+	/**
+	 * Brings a newly connected client up to date. Clients that send the epoch and the last
+	 * sequence they have seen get only the missed changes, or a single snapshot if they are
+	 * too far behind; other clients get all the orders in a single {@code orders} event.
+	 */
+	private void syncOrdersTo(ClientOutbox outbox) {
+		var client = outbox.getClient();
+		var handshake = client.getHandshakeData();
+		String group = outbox.getGroup();
+		String epoch = handshake.getSingleUrlParam(EPOCH_PARAM);
+		String lastSeq = handshake.getSingleUrlParam(LAST_SEQ_PARAM);
+
+		if (lastSeq == null) {
+			log.debug("Sending all orders to client {}", client.getSessionId());
+			var snapshot = orderBook.snapshot(group);
+			if (!snapshot.orders().isEmpty()) {
+				sendOrdersTo(outbox, snapshot.orders(), snapshot.seq());
+			}
+			return;
+		}
+
+		var changes = NumberUtils.isDigits(lastSeq)
+			? orderBook.changesSince(group, epoch, Long.parseLong(lastSeq))
+			: Optional.<List<OrderChange>>empty();
+		if (changes.isPresent()) {
+			log.debug("Sending {} changes after seq {} to client {}", changes.get().size(), lastSeq, client.getSessionId());
+			sendChangesTo(outbox, changes.get());
+		} else {
+			log.debug("Sending orders snapshot to client {}", client.getSessionId());
+			sendSnapshotTo(outbox, group);
+		}
+	}
+
+	private void sendSnapshotTo(ClientOutbox outbox, String group) {
+		outbox.offerUnbounded(SNAPSHOT_EVENT, orderBook.snapshot(group));
+	}
+
+	/**
+	 * Sends the missed changes in a single {@value BroadcastDispatcher#BATCH_EVENT} frame, one frame per change
+	 * to binary clients, which are sent the binary frames one at a time as in a broadcast.
+	 */
+	private void sendChangesTo(ClientOutbox outbox, List<OrderChange> changes) {
+		if (outbox.isBinary() || changes.size() == 1) {
+			changes.forEach(change -> sendChangeTo(outbox, change));
+		} else if (!changes.isEmpty()) {
+			List<String> events = changes.stream().map(SocketIoService::eventOf).toList();
+			List<List<Object>> payload = changes.stream().map(SocketIoService::batchEntryOf).toList();
+			outbox.offerBatchUnbounded(BroadcastDispatcher.BATCH_EVENT, events, payload);
 		}
 	}
 
-	public void sendOrder(Order order) {
-		log.info("Send order {}", order);
-		clients.forEach(client -> sendOrderTo(client, order));
-		log.info("Ordine inviato a tutti i dispositivi");
+	private static String eventOf(OrderChange change) {
+		return switch (change.type()) {
+			case SAVE -> ORDER_EVENT;
+			case DELETE -> DELETE_EVENT;
+			case RESET -> RESET_EVENT;
+		};
 	}
 
-	public void deleteOrder(Order order) {
-		log.info("Delete order {}", order);
-		clients.forEach(client -> deleteOrderTo(client, order));
-		log.info("Ordine cancellato a tutti i dispositivi");
+	// [event, args...], as in the batches of the dispatcher
+	private static List<Object> batchEntryOf(OrderChange change) {
+		return change.type() == OrderChange.Type.RESET
+			? List.of(RESET_EVENT, change.seq())
+			: List.of(eventOf(change), change.order(), change.seq());
+	}
+
+	private void sendChangeTo(ClientOutbox outbox, OrderChange change) {
+		switch (change.type()) {
+			case SAVE -> sendOrderTo(outbox, change.order(), change.seq());
+			case DELETE -> deleteOrderTo(outbox, change.order(), change.seq());
+			case RESET -> reset(outbox, change.seq());
+		}
+	}
+
+	private void sendOrderTo(ClientOutbox outbox, Order order, long seq) {
+		log.trace("Sending {} to client {}...", order, outbox.getClient().getSessionId());
+		if (outbox.isBinary()) {
+			outbox.offerUnbounded(ORDER_EVENT, (Object) binaryCodec.encodeSelfContained(OrderBinaryCodec.SAVE, seq, List.of(order)));
+		} else {
+			outbox.offerUnbounded(ORDER_EVENT, order, seq);
+		}
+	}
+
+	private void sendOrdersTo(ClientOutbox outbox, List<Order> orders, long seq) {
+		log.trace("Sending {} orders to client {}...", orders.size(), outbox.getClient().getSessionId());
+		if (outbox.isBinary()) {
+			outbox.offerUnbounded(ORDERS_EVENT, (Object) binaryCodec.encodeSelfContained(OrderBinaryCodec.SAVE, seq, orders));
+		} else {
+			outbox.offerUnbounded(ORDERS_EVENT, orders, seq);
+		}
+	}
+
+	public void sendOrder(OrderChange change) {
+		log.info("Send order {}", change.order());
+		dispatcher.broadcastWithBinary(change.group(), ORDER_EVENT,
+			() -> binaryCodec.encode(change.group(), OrderBinaryCodec.SAVE, change.seq(), List.of(change.order())), change.order(), change.seq());
+	}
+
+	public void sendOrders(List<OrderChange> changes) {
+		log.info("Send {} orders", changes.size());
+		changes.stream()
+			.collect(Collectors.groupingBy(OrderChange::group, LinkedHashMap::new, Collectors.toList()))
+			.forEach((group, groupChanges) -> {
+				List<Order> orders = groupChanges.stream().map(OrderChange::order).toList();
+				long seq = groupChanges.get(groupChanges.size() - 1).seq();
+				dispatcher.broadcastWithBinary(group, ORDERS_EVENT, () -> binaryCodec.encode(group, OrderBinaryCodec.SAVE, seq, orders), orders, seq);
+			});
+	}
+
+	public void deleteOrder(OrderChange change) {
+		log.info("Delete order {}", change.order());
+		dispatcher.broadcastWithBinary(change.group(), DELETE_EVENT,
+			() -> binaryCodec.encode(change.group(), OrderBinaryCodec.DELETE, change.seq(), List.of(change.order())), change.order(), change.seq());
 	}
 
 	public void menuUpdated() {
+		broadcastMenuUpdated();
+		clusterEventBus.publish(ClusterEvent.menuUpdated(clusterEventBus.nodeId()));
+	}
+
+	/**
+	 * Notifies the local clients only.
+	 */
+	public void broadcastMenuUpdated() {
 		log.info("Send '{}' to all clients", MENU_UPDATED_EVENT);
-		clients.forEach(client -> client.sendEvent(MENU_UPDATED_EVENT));
+		dispatcher.broadcast(null, MENU_UPDATED_EVENT);
 	}
 
-	private void deleteOrderTo(SocketIOClient client, Order order) {
-		try {
-			log.trace("Deleting {} to client {}...", order, client.getSessionId());
-			client.sendEvent(DELETE_EVENT, order);
-		} catch (Exception e) {
-			log.error("WS: errore nella comunicazione session id={}", client.getSessionId());
+	private void deleteOrderTo(ClientOutbox outbox, Order order, long seq) {
+		log.trace("Deleting {} to client {}...", order, outbox.getClient().getSessionId());
+		if (outbox.isBinary()) {
+			outbox.offerUnbounded(DELETE_EVENT, (Object) binaryCodec.encodeSelfContained(OrderBinaryCodec.DELETE, seq, List.of(order)));
+		} else {
+			outbox.offerUnbounded(DELETE_EVENT, order, seq);
 		}
 	}
 
-	public void reset() {
-		log.info("WS: reset...");
-		clients.forEach(this::reset);
-		log.info("WS: reset done");
+	public void reset(OrderChange change) {
+		log.info("WS: reset group {}...", change.group());
+		dispatcher.broadcast(change.group(), RESET_EVENT, change.seq());
 	}
 
-	private void reset(SocketIOClient client) {
-		try {
-			log.trace("Reset client {}...", client.getSessionId());
-			client.sendEvent(RESET_EVENT);
-		} catch (Exception e) {
-			log.error("WS: errore nella comunicazione session id={}", client.getSessionId());
-		}
+	private void reset(ClientOutbox outbox, long seq) {
+		log.trace("Reset client {}...", outbox.getClient().getSessionId());
+		outbox.offerUnbounded(RESET_EVENT, seq);
 	}
 
 	@PreDestroy
 	public void shutdownSocketServer() {
+		dispatcher.stop();
+		handlerExecutor.shutdown();
 		if (this.socketIOServer != null) {
 			log.info("Arresto SocketIO...");
 			this.socketIOServer.stop();
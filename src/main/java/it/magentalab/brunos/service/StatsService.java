@@ -0,0 +1,147 @@
+package it.magentalab.brunos.service;
+
+import it.magentalab.brunos.dto.ArticleCount;
+import it.magentalab.brunos.dto.MonthlyArticles;
+import it.magentalab.brunos.dto.WeekdayHeadcount;
+import it.magentalab.brunos.repository.DailyArticleCountRepository;
+import it.magentalab.brunos.repository.DailyPersonArticleRepository;
+import it.magentalab.brunos.repository.OrderArchiveRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Ordering history, answered from daily rollups of the archive instead of the archived orders.
+ * <p>
+ * A group's rollups for a day are recomputed from the archive whenever its orders are archived by a
+ * reset, in the same transaction. Archived days without rollups, e.g. archived before the rollups
+ * existed, are rolled up in background at startup.
+ */
+@Service
+@Slf4j
+public class StatsService {
+
+	private static final Comparator<ArticleCount> BY_ORDERS_DESC = Comparator.comparingLong(ArticleCount::orders).reversed()
+		.thenComparing(ArticleCount::article);
+
+	private final DailyArticleCountRepository articleCountRepository;
+	private final DailyPersonArticleRepository personArticleRepository;
+	private final OrderArchiveRepository orderArchiveRepository;
+	private final TransactionTemplate transactionTemplate;
+
+	@Value("${stats.backfill.enabled:true}")
+	private boolean backfillEnabled;
+
+	@Autowired
+	public StatsService(DailyArticleCountRepository articleCountRepository, DailyPersonArticleRepository personArticleRepository,
+						OrderArchiveRepository orderArchiveRepository, TransactionTemplate transactionTemplate) {
+		this.articleCountRepository = articleCountRepository;
+		this.personArticleRepository = personArticleRepository;
+		this.orderArchiveRepository = orderArchiveRepository;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	/**
+	 * Recomputes the rollups of a group for a day from the archive, joining the current transaction.
+	 */
+	@Transactional
+	public void rollUp(String group, LocalDate day) {
+		articleCountRepository.deleteDay(group, day);
+		personArticleRepository.deleteDay(group, day);
+		int articles = articleCountRepository.rollUp(group, day);
+		personArticleRepository.rollUp(group, day);
+		log.debug("Rolled up {} articles of group '{}' on {}", articles, group, day);
+	}
+
+	/**
+	 * Rolls up the archived days that have no rollups, one transaction per day.
+	 */
+	@Async
+	@EventListener(ApplicationReadyEvent.class)
+	public void backfill() {
+		if (!backfillEnabled) {
+			return;
+		}
+		List<Object[]> days = orderArchiveRepository.findDaysWithoutRollup();
+		if (days.isEmpty()) {
+			return;
+		}
+		log.info("Backfilling the rollups of {} archived days", days.size());
+		int done = 0;
+		for (Object[] day : days) {
+			String group = (String) day[0];
+			LocalDate orderDay = (LocalDate) day[1];
+			try {
+				transactionTemplate.executeWithoutResult(status -> rollUp(group, orderDay));
+				done++;
+			} catch (Exception e) {
+				log.warn("Rollup of group '{}' on {} failed: {}", group, orderDay, e.getMessage());
+			}
+		}
+		log.info("Backfilled the rollups of {}/{} archived days", done, days.size());
+	}
+
+	/**
+	 * @return The most ordered articles in the range, inclusive
+	 */
+	public List<ArticleCount> topArticles(String group, LocalDate from, LocalDate to, int limit) {
+		return articleCountRepository.topArticles(group, from, to, Limit.of(limit));
+	}
+
+	/**
+	 * @return The most ordered articles of each month in the range, inclusive
+	 */
+	public List<MonthlyArticles> topArticlesByMonth(String group, LocalDate from, LocalDate to, int limit) {
+		Map<YearMonth, List<ArticleCount>> months = new TreeMap<>();
+		for (Object[] row : articleCountRepository.countByMonth(group, from, to)) {
+			var month = YearMonth.of(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+			months.computeIfAbsent(month, m -> new ArrayList<>()).add(new ArticleCount((String) row[2], ((Number) row[3]).longValue()));
+		}
+		List<MonthlyArticles> result = new ArrayList<>(months.size());
+		months.forEach((month, articles) -> {
+			articles.sort(BY_ORDERS_DESC);
+			result.add(new MonthlyArticles(month, List.copyOf(articles.subList(0, Math.min(limit, articles.size())))));
+		});
+		return result;
+	}
+
+	/**
+	 * @return The articles a person ordered most in the range, inclusive
+	 */
+	public List<ArticleCount> favourites(String group, String name, LocalDate from, LocalDate to, int limit) {
+		return personArticleRepository.favourites(group, name, from, to, Limit.of(limit));
+	}
+
+	/**
+	 * @return The average number of people ordering on each weekday with orders in the range, inclusive
+	 */
+	public List<WeekdayHeadcount> headcountByWeekday(String group, LocalDate from, LocalDate to) {
+		Map<DayOfWeek, long[]> totals = new EnumMap<>(DayOfWeek.class);
+		for (Object[] row : personArticleRepository.headcounts(group, from, to)) {
+			// {people, days}
+			long[] total = totals.computeIfAbsent(((LocalDate) row[0]).getDayOfWeek(), d -> new long[2]);
+			total[0] += ((Number) row[1]).longValue();
+			total[1]++;
+		}
+		List<WeekdayHeadcount> result = new ArrayList<>(totals.size());
+		totals.forEach((weekday, total) -> result.add(new WeekdayHeadcount(weekday, (double) total[0] / total[1], (int) total[1])));
+		return result;
+	}
+}
@@ -0,0 +1,553 @@
+package it.magentalab.brunos.store;
+
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.model.OrderArchive;
+import it.magentalab.brunos.repository.OrderArchiveRepository;
+import it.magentalab.brunos.service.StatsService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32C;
+
+/**
+ * Orders in an append-only journal of save, delete and reset records, written through a memory-mapped file.
+ * <p>
+ * Files in {@code orders.journal.dir}, by generation: {@code snapshot-<g>.dat} holds the orders
+ * before the records of {@code journal-<g>.log}. Periodically, and when a journal is full, a new
+ * generation starts with a snapshot of the current orders and the older files are deleted.
+ * On startup the latest snapshot is loaded and the journals from its generation on are replayed.
+ * <p>
+ * A record is {@code int length, int CRC32C, payload}: replay stops at the first record that
+ * is incomplete or corrupt, the tail of a write interrupted by a crash, which is then overwritten.
+ * <p>
+ * Writes return once their records are on disk. Writers append under a lock, then force the file
+ * outside of it: a single force covers the records of every writer that appended meanwhile (group commit).
+ * <p>
+ * Resets still archive the orders to orders_archive, where the stats are computed from.
+ */
+@Component
+@ConditionalOnProperty(name = "orders.store", havingValue = "journal")
+@Slf4j
+public class JournalOrderStore implements OrderStore {
+
+	private static final Pattern FILE_NAME = Pattern.compile("(journal|snapshot)-(\\d+)\\.(log|dat)");
+	private static final int SNAPSHOT_MAGIC = 0x42524E54;
+	// snapshots written before the orders had a creation time
+	private static final int UNTIMED_SNAPSHOT_MAGIC = 0x42524E53;
+	private static final long NO_TIME = Long.MIN_VALUE;
+	private static final int HEADER_SIZE = 8;
+	private static final int MAX_RECORD_SIZE = 64 * 1024;
+
+	private static final byte SAVE = 1;
+	private static final byte DELETE = 2;
+	private static final byte RESET = 3;
+	private static final byte ID_BLOCK = 4;
+
+	/**
+	 * A mapped journal file.
+	 */
+	private static final class Segment {
+		private final long generation;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		// end of the records: written under lock, forced under syncLock
+		private volatile int written;
+		private int forced;
+
+		private Segment(long generation, FileChannel channel, MappedByteBuffer buffer) {
+			this.generation = generation;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+
+	private final OrderArchiveRepository orderArchiveRepository;
+	private final StatsService statsService;
+	private final TransactionTemplate transactionTemplate;
+	private final Path directory;
+	private final int journalSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	// taken without lock, or after it
+	private final ReentrantLock syncLock = new ReentrantLock();
+
+	// guarded by lock: the orders as of the last record, by id
+	private final Map<Long, Order> orders = new TreeMap<>();
+	private long maxId;
+	private Segment segment;
+	private long recordsSinceSnapshot;
+
+	@Autowired
+	public JournalOrderStore(OrderArchiveRepository orderArchiveRepository, StatsService statsService, TransactionTemplate transactionTemplate,
+							 @Value("${orders.journal.dir}") Path directory,
+							 @Value("${orders.journal.size-mb:64}") int journalSizeMb) {
+		this.orderArchiveRepository = orderArchiveRepository;
+		this.statsService = statsService;
+		this.transactionTemplate = transactionTemplate;
+		this.directory = directory;
+		this.journalSize = journalSizeMb * 1024 * 1024;
+	}
+
+	@Override
+	public List<Order> load() {
+		lock.lock();
+		try {
+			Files.createDirectories(directory);
+			TreeSet<Long> journals = new TreeSet<>();
+			TreeSet<Long> snapshots = new TreeSet<>();
+			try (var files = Files.list(directory)) {
+				files.forEach(file -> {
+					Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+					if (matcher.matches()) {
+						(matcher.group(1).equals("journal") ? journals : snapshots).add(Long.parseLong(matcher.group(2)));
+					}
+				});
+			}
+
+			long generation = snapshots.isEmpty() ? 0 : snapshots.last();
+			if (!snapshots.isEmpty()) {
+				readSnapshot(generation);
+			} else if (journals.isEmpty()) {
+				// new journal: ids must not clash with the archived orders
+				maxId = orderArchiveRepository.findMaxId();
+			}
+			var replayed = journals.tailSet(generation, true);
+			for (long journal : replayed) {
+				if (journal != replayed.last()) {
+					var old = openSegment(journal);
+					replay(old);
+					old.channel.close();
+				}
+			}
+			segment = openSegment(replayed.isEmpty() ? generation : replayed.last());
+			replay(segment);
+			deleteBefore(generation);
+			log.info("Order journal loaded from {}: {} orders, generation {}, {} bytes of records",
+				directory, orders.size(), segment.generation, segment.written);
+			return orders.values().stream().map(JournalOrderStore::copy).toList();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot load the order journal from " + directory, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Map<String, Long> archivedArticles() {
+		Map<String, Long> articles = new TreeMap<>();
+		orderArchiveRepository.countByArticle().forEach(row -> articles.put((String) row[0], ((Number) row[1]).longValue()));
+		return articles;
+	}
+
+	@Override
+	public long nextIdBlock() {
+		Segment written;
+		int end;
+		long blockEnd;
+		lock.lock();
+		try {
+			blockEnd = maxId + Order.ID_BLOCK_SIZE;
+			var out = record(ID_BLOCK);
+			writeLong(out, blockEnd);
+			append(out);
+			maxId = blockEnd;
+			written = segment;
+			end = segment.written;
+		} finally {
+			lock.unlock();
+		}
+		sync(written, end);
+		return blockEnd;
+	}
+
+	@Override
+	public List<IdConflict> persist(List<Write> batch) {
+		if (batch.isEmpty()) {
+			return List.of();
+		}
+		Segment written;
+		int end;
+		lock.lock();
+		try {
+			for (Write write : batch) {
+				var order = write.order();
+				var out = record(write.type() == WriteType.SAVE ? SAVE : DELETE);
+				writeOrder(out, order);
+				append(out);
+				apply(write.type() == WriteType.SAVE ? SAVE : DELETE, order);
+			}
+			written = segment;
+			end = segment.written;
+		} finally {
+			lock.unlock();
+		}
+		sync(written, end);
+		// the journal belongs to this node only
+		return List.of();
+	}
+
+	/**
+	 * Archives the orders of the group to the database, then records the reset. If the node stops in
+	 * between, the orders are archived again by the next reset, replacing the same archive rows.
+	 */
+	@Override
+	public int archive(String group, LocalDate day, List<Write> pending) {
+		persist(pending);
+		List<OrderArchive> archived = new ArrayList<>();
+		lock.lock();
+		try {
+			var now = Instant.now();
+			orders.values().stream()
+				.filter(order -> group.equals(order.getGroupId()))
+				.forEach(order -> archived.add(new OrderArchive(order.getId(), order.getArticle(), order.getName(), order.getGroupId(),
+					order.getNormalizedArticle(), order.getCreatedAt() == null ? day : LocalDate.ofInstant(order.getCreatedAt(), ZoneId.systemDefault()),
+					now)));
+		} finally {
+			lock.unlock();
+		}
+		transactionTemplate.executeWithoutResult(status -> {
+			orderArchiveRepository.upsertAll(archived);
+			archived.stream()
+				.map(OrderArchive::getOrderDay)
+				.distinct()
+				.forEach(orderDay -> statsService.rollUp(group, orderDay));
+		});
+
+		Segment written;
+		int end;
+		lock.lock();
+		try {
+			var out = record(RESET);
+			writeString(out, group);
+			append(out);
+			orders.values().removeIf(order -> group.equals(order.getGroupId()));
+			written = segment;
+			end = segment.written;
+		} finally {
+			lock.unlock();
+		}
+		sync(written, end);
+		return archived.size();
+	}
+
+	/**
+	 * Starts a new generation with a snapshot of the orders, if anything has been recorded since the last one.
+	 */
+	@Scheduled(fixedDelayString = "${orders.journal.snapshot-interval-ms:60000}")
+	public void snapshot() {
+		lock.lock();
+		try {
+			if (segment != null && recordsSinceSnapshot > 0) {
+				compact();
+			}
+		} catch (IOException e) {
+			log.error("Order journal snapshot failed: {}", e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		lock.lock();
+		try {
+			if (segment != null) {
+				segment.buffer.force();
+				segment.channel.close();
+				segment = null;
+			}
+		} catch (IOException e) {
+			log.warn("Order journal not closed: {}", e.getMessage());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// called with lock held
+	private void append(ByteArrayOutputStream out) {
+		byte[] record = out.toByteArray();
+		int payloadSize = record.length - HEADER_SIZE;
+		if (payloadSize > MAX_RECORD_SIZE) {
+			throw new IllegalArgumentException("Journal record too large: " + payloadSize + " bytes");
+		}
+		if (segment.written + record.length > journalSize) {
+			try {
+				compact();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Order journal full, new generation failed", e);
+			}
+		}
+		var crc = new CRC32C();
+		crc.update(record, HEADER_SIZE, payloadSize);
+		var header = ByteBuffer.wrap(record, 0, HEADER_SIZE);
+		header.putInt(payloadSize);
+		header.putInt((int) crc.getValue());
+		segment.buffer.put(segment.written, record);
+		segment.written += record.length;
+		recordsSinceSnapshot++;
+	}
+
+	/**
+	 * Forces the records up to {@code end} to disk, unless another writer already did.
+	 */
+	private void sync(Segment written, int end) {
+		syncLock.lock();
+		try {
+			if (written.forced >= end) {
+				return;
+			}
+			int upTo = written.written;
+			written.buffer.force(written.forced, upTo - written.forced);
+			written.forced = upTo;
+		} finally {
+			syncLock.unlock();
+		}
+	}
+
+	/**
+	 * Switches to a new journal, then writes the snapshot of its generation and deletes the older files.
+	 */
+	// called with lock held
+	private void compact() throws IOException {
+		var previous = segment;
+		syncLock.lock();
+		try {
+			previous.buffer.force();
+			previous.forced = previous.written;
+		} finally {
+			syncLock.unlock();
+		}
+		segment = openSegment(previous.generation + 1);
+		previous.channel.close();
+		writeSnapshot(segment.generation);
+		recordsSinceSnapshot = 0;
+		deleteBefore(segment.generation);
+		log.debug("Order journal compacted: {} orders, generation {}", orders.size(), segment.generation);
+	}
+
+	private Segment openSegment(long generation) throws IOException {
+		var channel = FileChannel.open(directory.resolve("journal-" + generation + ".log"),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		var buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(journalSize, channel.size()));
+		return new Segment(generation, channel, buffer);
+	}
+
+	/**
+	 * Applies the records of a journal, up to the first incomplete or corrupt one, which is erased.
+	 */
+	private void replay(Segment replayed) throws IOException {
+		var buffer = replayed.buffer;
+		int position = 0;
+		int records = 0;
+		while (position + HEADER_SIZE <= buffer.capacity()) {
+			int size = buffer.getInt(position);
+			if (size <= 0 || size > MAX_RECORD_SIZE || position + HEADER_SIZE + size > buffer.capacity()) {
+				break;
+			}
+			byte[] payload = new byte[size];
+			buffer.get(position + HEADER_SIZE, payload);
+			var crc = new CRC32C();
+			crc.update(payload);
+			if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+				log.warn("Order journal {}: corrupt record at {}, the records after it are discarded", replayed.generation, position);
+				break;
+			}
+			applyRecord(payload);
+			position += HEADER_SIZE + size;
+			records++;
+		}
+		// the tail of an interrupted write must not be read as the continuation of the next records
+		int end = Math.min(buffer.capacity(), position + HEADER_SIZE + MAX_RECORD_SIZE);
+		for (int i = position; i < end; i++) {
+			buffer.put(i, (byte) 0);
+		}
+		buffer.force();
+		replayed.written = position;
+		replayed.forced = position;
+		recordsSinceSnapshot += records;
+	}
+
+	private void applyRecord(byte[] payload) throws IOException {
+		var in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		switch (type) {
+			case SAVE, DELETE -> {
+				var order = readOrder(in);
+				// records written before the orders had a creation time end with the order
+				if (in.available() > 0) {
+					order.setCreatedAt(readInstant(in));
+				}
+				apply(type, order);
+			}
+			case RESET -> {
+				String group = readString(in);
+				orders.values().removeIf(order -> Objects.equals(group, order.getGroupId()));
+			}
+			case ID_BLOCK -> maxId = Math.max(maxId, in.readLong());
+			default -> throw new IOException("Unknown journal record type " + type);
+		}
+	}
+
+	private void apply(byte type, Order order) {
+		if (type == SAVE) {
+			orders.put(order.getId(), copy(order));
+			maxId = Math.max(maxId, order.getId());
+		} else if (order.getId() == null || orders.remove(order.getId()) == null) {
+			orders.values().removeIf(existing -> Objects.equals(existing.getGroupId(), order.getGroupId())
+				&& Objects.equals(existing.getName(), order.getName())
+				&& Objects.equals(existing.getCleanedArticle(), order.getCleanedArticle()));
+		}
+	}
+
+	private void readSnapshot(long generation) throws IOException {
+		var file = directory.resolve("snapshot-" + generation + ".dat");
+		try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			int magic = in.readInt();
+			if (magic != SNAPSHOT_MAGIC && magic != UNTIMED_SNAPSHOT_MAGIC) {
+				throw new IOException("Not an order snapshot: " + file);
+			}
+			maxId = in.readLong();
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				var order = readOrder(in);
+				if (magic == SNAPSHOT_MAGIC) {
+					order.setCreatedAt(readInstant(in));
+				}
+				orders.put(order.getId(), order);
+			}
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file, forced to disk, then renames it: a snapshot is either complete or missing.
+	 */
+	private void writeSnapshot(long generation) throws IOException {
+		var out = new ByteArrayOutputStream(64 + orders.size() * 64);
+		var data = new DataOutputStream(out);
+		data.writeInt(SNAPSHOT_MAGIC);
+		data.writeLong(maxId);
+		data.writeInt(orders.size());
+		for (Order order : orders.values()) {
+			writeOrder(out, order);
+		}
+		data.flush();
+
+		var temporary = directory.resolve("snapshot-" + generation + ".tmp");
+		try (var channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			var bytes = ByteBuffer.wrap(out.toByteArray());
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(true);
+		}
+		Files.move(temporary, directory.resolve("snapshot-" + generation + ".dat"), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void deleteBefore(long generation) throws IOException {
+		try (var files = Files.list(directory)) {
+			for (Path file : files.toList()) {
+				Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+				if (matcher.matches() && Long.parseLong(matcher.group(2)) < generation) {
+					Files.deleteIfExists(file);
+				}
+			}
+		}
+	}
+
+	private static ByteArrayOutputStream record(byte type) {
+		var out = new ByteArrayOutputStream(128);
+		// header, filled in by append
+		out.writeBytes(new byte[HEADER_SIZE]);
+		out.write(type);
+		return out;
+	}
+
+	private static void writeOrder(ByteArrayOutputStream out, Order order) {
+		writeLong(out, order.getId() == null ? -1 : order.getId());
+		writeString(out, order.getGroupId());
+		writeString(out, order.getName());
+		writeString(out, order.getArticle());
+		writeLong(out, order.getCreatedAt() == null ? NO_TIME : order.getCreatedAt().toEpochMilli());
+	}
+
+	private static Order readOrder(DataInputStream in) throws IOException {
+		var order = new Order();
+		long id = in.readLong();
+		order.setId(id < 0 ? null : id);
+		order.setGroupId(readString(in));
+		order.setName(readString(in));
+		order.setArticle(readString(in));
+		return order;
+	}
+
+	private static Instant readInstant(DataInputStream in) throws IOException {
+		long millis = in.readLong();
+		return millis == NO_TIME ? null : Instant.ofEpochMilli(millis);
+	}
+
+	private static void writeLong(ByteArrayOutputStream out, long value) {
+		try {
+			new DataOutputStream(out).writeLong(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		try {
+			var data = new DataOutputStream(out);
+			data.writeBoolean(value != null);
+			if (value != null) {
+				data.writeUTF(value);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static Order copy(Order order) {
+		var copy = new Order();
+		copy.setId(order.getId());
+		copy.setGroupId(order.getGroupId());
+		copy.setName(order.getName());
+		copy.setArticle(order.getArticle());
+		copy.setCreatedAt(order.getCreatedAt());
+		return copy;
+	}
+}
@@ -0,0 +1,148 @@
+package it.magentalab.brunos.store;
+
+import it.magentalab.brunos.model.Order;
+import it.magentalab.brunos.repository.OrderArchiveRepository;
+import it.magentalab.brunos.repository.OrderRepository;
+import it.magentalab.brunos.service.StatsService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Orders in the orders table, archived to orders_archive with the daily rollups.
+ */
+@Component
+@ConditionalOnProperty(name = "orders.store", havingValue = "jpa", matchIfMissing = true)
+@Slf4j
+public class JpaOrderStore implements OrderStore {
+
+	private final OrderRepository orderRepository;
+	private final OrderArchiveRepository orderArchiveRepository;
+	private final StatsService statsService;
+	private final TransactionTemplate transactionTemplate;
+
+	@Autowired
+	public JpaOrderStore(OrderRepository orderRepository, OrderArchiveRepository orderArchiveRepository, StatsService statsService,
+						 TransactionTemplate transactionTemplate) {
+		this.orderRepository = orderRepository;
+		this.orderArchiveRepository = orderArchiveRepository;
+		this.statsService = statsService;
+		this.transactionTemplate = transactionTemplate;
+	}
+
+	@Override
+	public List<Order> load() {
+		// orders saved before groups existed belong to the default group
+		Integer ungrouped = transactionTemplate.execute(status -> orderRepository.assignGroup(Order.DEFAULT_GROUP));
+		if (ungrouped != null && ungrouped > 0) {
+			log.info("Moved {} orders to group '{}'", ungrouped, Order.DEFAULT_GROUP);
+		}
+		Integer normalized = transactionTemplate.execute(status -> orderRepository.normalizeArticles());
+		if (normalized != null && normalized > 0) {
+			log.info("Normalized the article of {} orders", normalized);
+		}
+		// archived orders keep their id, and the sequence may be older than the ids (e.g. upgraded from identity)
+		orderRepository.alignIdSequence(Math.max(orderRepository.findMaxId(), orderArchiveRepository.findMaxId()));
+		return orderRepository.findAll();
+	}
+
+	@Override
+	public Map<String, Long> archivedArticles() {
+		Map<String, Long> articles = new LinkedHashMap<>();
+		orderArchiveRepository.countByArticle().forEach(row -> articles.put((String) row[0], ((Number) row[1]).longValue()));
+		return articles;
+	}
+
+	@Override
+	public long nextIdBlock() {
+		// same blocks as Hibernate's pooled optimizer: the ids up to the sequence value
+		return orderRepository.nextIdBlock();
+	}
+
+	@Override
+	public List<IdConflict> persist(List<Write> batch) {
+		return transactionTemplate.execute(status -> persistInTransaction(batch));
+	}
+
+	/**
+	 * Persists the pending writes, archives the orders of the group and brings the rollups of their
+	 * days up to date in a single transaction: nothing changes if it fails.
+	 */
+	@Override
+	public int archive(String group, LocalDate day, List<Write> pending) {
+		Integer archived = transactionTemplate.execute(status -> {
+			persistInTransaction(pending);
+			List<LocalDate> days = orderRepository.findOrderDays(group, day);
+			int count = orderArchiveRepository.archiveGroup(group, day);
+			orderRepository.deleteByGroup(group);
+			days.forEach(orderDay -> statsService.rollUp(group, orderDay));
+			return count;
+		});
+		return archived == null ? 0 : archived;
+	}
+
+	private List<IdConflict> persistInTransaction(List<Write> batch) {
+		List<IdConflict> conflicts = new ArrayList<>();
+		int i = 0;
+		while (i < batch.size()) {
+			var type = batch.get(i).type();
+			// consecutive saves or deletes are sent as a single batch
+			List<Order> run = new ArrayList<>();
+			while (i < batch.size() && batch.get(i).type() == type) {
+				run.add(batch.get(i).order());
+				i++;
+			}
+			if (type == WriteType.SAVE) {
+				insert(run, conflicts);
+			} else {
+				delete(run, conflicts);
+			}
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Inserts the orders in a single round trip. An order clashing with one already in the
+	 * database, inserted by another node at the same time, is reported with the id of the existing one.
+	 */
+	private void insert(List<Order> run, List<IdConflict> conflicts) {
+		boolean[] inserted = orderRepository.insertIfAbsent(run);
+		for (int i = 0; i < inserted.length; i++) {
+			if (!inserted[i]) {
+				var order = run.get(i);
+				Long existingId = orderRepository.findIdByKey(order.getGroupId(), order.getName(), order.getCleanedArticle());
+				log.warn("Order already in the database with id {}: {}", existingId, order);
+				if (existingId != null) {
+					conflicts.add(new IdConflict(order, existingId));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes the orders by id. An order that clashed earlier in the batch still has its local id,
+	 * the row to delete is the existing one.
+	 */
+	private void delete(List<Order> run, List<IdConflict> conflicts) {
+		Map<Order, Long> existingIds = new IdentityHashMap<>();
+		conflicts.forEach(conflict -> existingIds.put(conflict.order(), conflict.existingId()));
+		orderRepository.deleteAllByIdInBatch(run.stream()
+			.map(order -> existingIds.getOrDefault(order, order.getId()))
+			.filter(Objects::nonNull)
+			.toList());
+		// orders saved by nodes that did not assign ids up front have no id
+		run.stream()
+			.filter(order -> order.getId() == null)
+			.forEach(order -> orderRepository.deleteByKey(order.getGroupId(), order.getName(), order.getCleanedArticle()));
+	}
+}
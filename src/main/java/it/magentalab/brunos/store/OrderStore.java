@@ -0,0 +1,61 @@
+package it.magentalab.brunos.store;
+
+import it.magentalab.brunos.model.Order;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistence of the orders held by the order book. Implementations are selected with {@code orders.store}.
+ * <p>
+ * The order book is authoritative: it checks duplicates and assigns ids, the store only records
+ * the changes and gives the orders back on startup.
+ */
+public interface OrderStore {
+
+	enum WriteType {
+		SAVE,
+		DELETE
+	}
+
+	record Write(WriteType type, Order order) {
+	}
+
+	/**
+	 * An order saved by another node of the cluster too, under another id.
+	 */
+	record IdConflict(Order order, long existingId) {
+	}
+
+	/**
+	 * @return The current orders of every group
+	 */
+	List<Order> load();
+
+	/**
+	 * @return Orders of the archived articles, by spelling
+	 */
+	Map<String, Long> archivedArticles();
+
+	/**
+	 * Reserves the ids from {@code result - Order.ID_BLOCK_SIZE + 1} to {@code result}.
+	 */
+	long nextIdBlock();
+
+	/**
+	 * Records the writes, in order, as a whole.
+	 *
+	 * @return The saved orders already stored under another id
+	 */
+	List<IdConflict> persist(List<Write> batch);
+
+	/**
+	 * Records the pending writes, then moves the orders of the group to the archive, each stamped with
+	 * the day it was added, in the default time zone, and rolls up those days.
+	 *
+	 * @param day the day of the orders without a creation time
+	 * @return Number of archived orders
+	 */
+	int archive(String group, LocalDate day, List<Write> pending);
+}
@@ -3,7 +3,12 @@ package it.magentalab.brunos.utils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
+import java.util.Arrays;
+
 public class ResponseUtils {
+	// distinguishes versions generated by different runs of the application
+	private static final String BOOT_ID = Long.toString(System.currentTimeMillis(), 36);
+
 	public static ResponseEntity<?> unauthorized() {
 		return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
 	}
@@ -29,4 +34,28 @@ public class ResponseUtils {
 	public static <T>ResponseEntity<?> ok(T body) {
 		return ResponseEntity.ok(body);
 	}
+
+	/**
+	 * Builds a strong ETag for an in-memory version counter.
+	 */
+	public static String etag(long version) {
+		return "\"" + BOOT_ID + "-" + version + "\"";
+	}
+
+	/**
+	 * Checks an If-None-Match header value against the given ETag.
+	 */
+	public static boolean etagMatches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		return Arrays.stream(ifNoneMatch.split(","))
+			.map(String::trim)
+			.map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+			.anyMatch(tag -> tag.equals("*") || tag.equals(etag));
+	}
+
+	public static <T> ResponseEntity<T> notModified(String etag) {
+		return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+	}
 }